@@ -20,7 +20,9 @@ import android.app.Dialog;
 import android.app.DialogFragment;
 import android.content.DialogInterface;
 import android.content.Intent;
+import android.database.ContentObserver;
 import android.database.Cursor;
+import android.net.Uri;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.RemoteException;
@@ -69,10 +71,13 @@ public final class ActivityAlarmClock extends AppCompatActivity implements
     private static AlarmClockServiceBinder service;
     private static NotificationServiceBinder notifyService;
     private DbAccessor db;
+    private AlarmRepository alarms;
     private static AlarmAdapter adapter;
     private Cursor cursor;
     private Handler handler;
     private Runnable tickCallback;
+    private ContentObserver alarmObserver;
+    private AlarmClockListener.Stub alarmListener;
     private static RecyclerView alarmList;
     private int mLastFirstVisiblePosition;
 
@@ -95,6 +100,7 @@ public final class ActivityAlarmClock extends AppCompatActivity implements
         service = new AlarmClockServiceBinder(getApplicationContext());
 
         db = new DbAccessor(getApplicationContext());
+        alarms = new AlarmRepository(db);
 
         handler = new Handler();
 
@@ -171,6 +177,45 @@ public final class ActivityAlarmClock extends AppCompatActivity implements
             }
         };
 
+        // The service tells this activity when alarms are scheduled, fire
+        // or move, so the pending times are only fetched again then rather
+        // than on every tick.
+        alarmListener = new AlarmClockListener.Stub() {
+            @Override
+            public void alarmsChanged(int changes, long[] alarmIds,
+                    long nextFireMillis) {
+                handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        adapter.refreshPendingAlarms();
+                    }
+                });
+            }
+        };
+
+        alarmObserver = new ContentObserver(handler) {
+            @Override
+            public void onChange(boolean selfChange) {
+                onChange(selfChange, null);
+            }
+
+            @Override
+            public void onChange(boolean selfChange, final Uri uri) {
+                Runnable change = new Runnable() {
+                    @Override
+                    public void run() {
+                        alarmChanged(uri);
+                    }
+                };
+
+                // Reading the alarm would wait for queued writes to commit,
+                // so handle the change once they have.
+                if (!AlarmWriteQueue.whenIdle(handler, change)) {
+                    change.run();
+                }
+            }
+        };
+
         if (!AppIntro.isAlarmDeletionShowcased(this)) {
             requery();
 
@@ -191,7 +236,7 @@ public final class ActivityAlarmClock extends AppCompatActivity implements
         long newAlarmId = service.resurrectAlarm(alarmTime, alarmName, enabled);
 
         if (newAlarmId != AlarmClockServiceBinder.NO_ALARM_ID) {
-            db.writeAlarmSettings(newAlarmId, alarmSettings);
+            alarms.writeAlarmSettings(newAlarmId, alarmSettings);
 
             requery();
         }
@@ -206,8 +251,15 @@ public final class ActivityAlarmClock extends AppCompatActivity implements
 
         service.bind();
 
+        service.registerListener(alarmListener);
+
         handler.post(tickCallback);
 
+        // Registered before the requery so that no change is missed,
+        // including settings still being written in the background.
+        getContentResolver().registerContentObserver(AlarmProvider.ALARMS_URI,
+                true, alarmObserver);
+
         requery();
 
         alarmList.getLayoutManager().scrollToPosition(mLastFirstVisiblePosition);
@@ -256,6 +308,10 @@ public final class ActivityAlarmClock extends AppCompatActivity implements
 
         handler.removeCallbacks(tickCallback);
 
+        getContentResolver().unregisterContentObserver(alarmObserver);
+
+        service.unregisterListener(alarmListener);
+
         service.unbind();
 
         if (notifyService != null) {
@@ -364,13 +420,46 @@ public final class ActivityAlarmClock extends AppCompatActivity implements
                 time.localizedString(this));
     }
 
+    // Reloads the alarm behind a change notification, or the whole list if
+    // the change can't be applied in place.
+    private void alarmChanged(Uri uri) {
+        long alarmId = AlarmProvider.alarmId(uri);
+
+        if (alarmId == AlarmClockServiceBinder.NO_ALARM_ID) {
+            requery();
+
+            return;
+        }
+
+        int position = adapter.indexOf(alarmId);
+
+        AlarmInfo info = alarms.readAlarmInfo(alarmId);
+
+        if (info == null) {
+            // Already gone from the list if it was deleted here.
+            if (position >= 0) {
+                adapter.removeAt(position);
+
+                setEmptyViewIfEmpty(this);
+            }
+        } else if (position >= 0 && info.getTime().equals(
+                adapter.getAlarmInfos().get(position).getTime())) {
+            adapter.replaceAt(position, info);
+        } else {
+            // New, or moved to another place in the time order.
+            requery();
+        }
+    }
+
     private void requery() {
         cursor = db.readAlarmInfo();
 
         ArrayList<AlarmInfo> infos = new ArrayList<>();
 
+        AlarmInfo.RowMapper mapper = new AlarmInfo.RowMapper(cursor);
+
         while (cursor.moveToNext()) {
-            infos.add(new AlarmInfo(cursor));
+            infos.add(mapper.map(cursor));
         }
 
         adapter = new AlarmAdapter(infos, service, this);
@@ -49,8 +49,10 @@ public final class ActivityAlarmNotification extends AppCompatActivity {
 
     private NotificationServiceBinder notifyService;
     private DbAccessor db;
+    private AlarmRepository alarms;
+    private AlarmClockServiceBinder service;
     private Handler handler;
-    private Runnable timeTick;
+    private AlarmClockListener.Stub alarmListener;
 
     // Dialog state
     int snoozeMinutes;
@@ -79,27 +81,35 @@ public final class ActivityAlarmNotification extends AppCompatActivity {
         getWindow().addFlags(WindowManager.LayoutParams.FLAG_SHOW_WHEN_LOCKED);
 
         db = new DbAccessor(getApplicationContext());
+        alarms = new AlarmRepository(db);
 
         // Start the notification service and bind to it.
         notifyService = new NotificationServiceBinder(getApplicationContext());
 
         notifyService.bind();
 
-        // Setup a self-scheduling event loops.
+        service = new AlarmClockServiceBinder(getApplicationContext());
+
+        service.bind();
+
+        // The alarm shown only changes when another alarm fires or the
+        // current one is dealt with, so redraw on those instead of polling.
         handler = new Handler();
 
-        timeTick = new Runnable() {
+        alarmListener = new AlarmClockListener.Stub() {
             @Override
-            public void run() {
-                notifyService.call(new NotificationServiceBinder.
-                        ServiceCallback() {
-                    @Override
-                    public void run(NotificationServiceInterface service) {
-
-                        long next = AlarmUtil.millisTillNextInterval(
-                                AlarmUtil.Interval.SECOND);
+            public void alarmsChanged(int changes, long[] alarmIds,
+                    long nextFireMillis) {
+                if ((changes & (AlarmClockService.CHANGE_FIRED
+                        | AlarmClockService.CHANGE_ACKNOWLEDGED
+                        | AlarmClockService.CHANGE_SNOOZED)) == 0) {
+                    return;
+                }
 
-                        handler.postDelayed(timeTick, next);
+                handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        redraw();
                     }
                 });
             }
@@ -127,7 +137,7 @@ public final class ActivityAlarmNotification extends AppCompatActivity {
     protected void onResume() {
         super.onResume();
 
-        handler.post(timeTick);
+        service.registerListener(alarmListener);
 
         redraw();
     }
@@ -136,7 +146,7 @@ public final class ActivityAlarmNotification extends AppCompatActivity {
     protected void onPause() {
         super.onPause();
 
-        handler.removeCallbacks(timeTick);
+        service.unregisterListener(alarmListener);
     }
 
     @Override
@@ -146,6 +156,8 @@ public final class ActivityAlarmNotification extends AppCompatActivity {
         db.closeConnections();
 
         notifyService.unbind();
+
+        service.unbind();
     }
 
     @Override
@@ -177,11 +189,14 @@ public final class ActivityAlarmNotification extends AppCompatActivity {
                     return;
                 }
 
-                AlarmInfo alarmInfo = db.readAlarmInfo(alarmId);
+                AlarmDetails details = alarms.readAlarmDetails(alarmId);
+
+                AlarmInfo alarmInfo = details == null ? null : details.getInfo();
 
                 if (snoozeMinutes == 0) {
-                    snoozeMinutes = db.readAlarmSettings(alarmId).
-                            getSnoozeMinutes();
+                    snoozeMinutes = details == null
+                            ? alarms.readAlarmSettings(alarmId).getSnoozeMinutes()
+                            : details.getSettings().getSnoozeMinutes();
                 }
 
                 String infoTime = "";
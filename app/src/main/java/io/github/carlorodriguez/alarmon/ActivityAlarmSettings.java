@@ -16,7 +16,6 @@
 package io.github.carlorodriguez.alarmon;
 
 import java.util.ArrayList;
-import java.util.Calendar;
 import java.util.List;
 
 import android.Manifest;
@@ -116,6 +115,7 @@ public final class ActivityAlarmSettings extends AppCompatActivity implements
     private static long alarmId;
     private static AlarmClockServiceBinder service;
     private DbAccessor db;
+    private AlarmRepository alarms;
     private AlarmInfo originalInfo;
     private static AlarmInfo info;
     private static AlarmSettings originalSettings;
@@ -148,11 +148,13 @@ public final class ActivityAlarmSettings extends AppCompatActivity implements
         // Access to in-memory and persistent data structures.
         service = new AlarmClockServiceBinder(getApplicationContext());
         db = new DbAccessor(getApplicationContext());
+        alarms = new AlarmRepository(db);
 
         // Read the current settings from the database.  Keep a copy of the
         // original values so that we can write new values only if they differ
         // from the originals.
-        originalInfo = db.readAlarmInfo(alarmId);
+        AlarmDetails details = alarms.readAlarmDetails(alarmId);
+        originalInfo = details == null ? null : details.getInfo();
         // Info will not be available for the default settings.
         if (originalInfo != null) {
             info = new AlarmInfo(originalInfo);
@@ -181,7 +183,8 @@ public final class ActivityAlarmSettings extends AppCompatActivity implements
                 }
             }
         }
-        originalSettings = db.readAlarmSettings(alarmId);
+        originalSettings = details == null
+                ? alarms.readAlarmSettings(alarmId) : details.getSettings();
         settings = new AlarmSettings(originalSettings);
 
         if (savedInstanceState != null) {
@@ -452,13 +455,13 @@ public final class ActivityAlarmSettings extends AppCompatActivity implements
             final AlarmTime infoTime = info.getTime();
 
             outState.putInt(SETTINGS_TIME_HOUR_OF_DAY_KEY,
-                    infoTime.calendar().get(Calendar.HOUR_OF_DAY));
+                    infoTime.hourOfDay());
 
             outState.putInt(SETTINGS_TIME_MINUTE_KEY,
-                    infoTime.calendar().get(Calendar.MINUTE));
+                    infoTime.minute());
 
             outState.putInt(SETTINGS_TIME_SECOND_KEY,
-                    infoTime.calendar().get(Calendar.SECOND));
+                    infoTime.second());
 
             outState.putString(SETTINGS_NAME_KEY, info.getName());
 
@@ -502,7 +505,7 @@ public final class ActivityAlarmSettings extends AppCompatActivity implements
     private void saveAlarmSettings() {
         // Write AlarmInfo if it changed.
         if (originalInfo != null && !originalInfo.equals(info)) {
-            db.writeAlarmInfo(alarmId, info);
+            alarms.writeAlarmInfo(alarmId, info);
 
             // Explicitly enable the alarm if the user changed the time.
             // This will reschedule the alarm if it was already enabled.
@@ -518,7 +521,7 @@ public final class ActivityAlarmSettings extends AppCompatActivity implements
 
         // Write AlarmSettings if they have changed.
         if (!originalSettings.equals(settings)) {
-            db.writeAlarmSettings(alarmId, settings);
+            alarms.writeAlarmSettings(alarmId, settings);
         }
     }
 
@@ -554,13 +557,11 @@ public final class ActivityAlarmSettings extends AppCompatActivity implements
                 case TIME:
                     final AlarmTime time = info.getTime();
 
-                    Calendar c = time.calendar();
-
                     picker = TimePickerDialog.newInstance(
                             ActivityAlarmSettings.this,
                             ActivityAlarmSettings.this,
-                            c.get(Calendar.HOUR_OF_DAY),
-                            c.get(Calendar.MINUTE),
+                            time.hourOfDay(),
+                            time.minute(),
                             DateFormat.is24HourFormat(ActivityAlarmSettings.this)
                     );
 
@@ -767,11 +768,13 @@ public final class ActivityAlarmSettings extends AppCompatActivity implements
                             new OnMultiChoiceClickListener() {
                                 @Override
                                 public void onClick(DialogInterface dialog, int which, boolean isChecked) {
+                                    final Week week = info.getTime().getDaysOfWeek();
                                     if (isChecked) {
-                                        info.getTime().getDaysOfWeek().addDay(Week.Day.values()[which]);
+                                        week.addDay(Week.Day.values()[which]);
                                     } else {
-                                        info.getTime().getDaysOfWeek().removeDay(Week.Day.values()[which]);
+                                        week.removeDay(Week.Day.values()[which]);
                                     }
+                                    info.setDaysOfWeek(week);
                                     settingsAdapter.notifyDataSetChanged();
                                 }
                             });
@@ -20,19 +20,30 @@ import android.content.ComponentName;
 import android.content.Intent;
 import android.content.ServiceConnection;
 import android.os.Bundle;
+import android.os.Handler;
 import android.os.IBinder;
 import android.os.RemoteException;
 import android.support.v7.app.AppCompatActivity;
 import android.widget.ArrayAdapter;
 import android.widget.ListView;
+import android.widget.TextView;
 
 /**
  * This is a simple activity which displays all of the scheduled (in memory)
- * alarms that currently exist (For debugging only).
+ * alarms that currently exist, along with how promptly logged alarms fired
+ * and started sounding and how the service and its storage perform (For
+ * debugging only).
  */
 public final class ActivityPendingAlarms extends AppCompatActivity {
   boolean connected;
   private ListView listView;
+  private TextView fireLatenessView;
+  private TextView timeToSoundView;
+  private TextView serviceStatsView;
+  private TextView storageStatsView;
+  private DbAccessor db;
+  private Handler handler;
+  private boolean destroyed;
 
   @Override
   protected void onCreate(Bundle savedInstanceState) {
@@ -45,6 +56,19 @@ public final class ActivityPendingAlarms extends AppCompatActivity {
 
     connected = false;
     listView = (ListView) findViewById(R.id.pending_alarm_list);
+    fireLatenessView = (TextView) findViewById(R.id.fire_lateness_stats);
+    timeToSoundView = (TextView) findViewById(R.id.time_to_sound_stats);
+    serviceStatsView = (TextView) findViewById(R.id.service_stats);
+    storageStatsView = (TextView) findViewById(R.id.storage_stats);
+    db = new DbAccessor(getApplicationContext());
+    handler = new Handler();
+  }
+
+  @Override
+  protected void onDestroy() {
+    super.onDestroy();
+    destroyed = true;
+    db.closeConnections();
   }
 
   @Override
@@ -54,6 +78,52 @@ public final class ActivityPendingAlarms extends AppCompatActivity {
     if (!bindService(i, connection, Service.BIND_AUTO_CREATE)) {
       throw new IllegalStateException("Unable to bind to AlarmClockService.");
     }
+    // Events and writes which are still queued are not in the database
+    // yet, so read the stats once they have been committed.
+    if (!AlarmWriteQueue.whenIdle(handler, refreshStats)) {
+      refreshStats.run();
+    }
+  }
+
+  private final Runnable refreshStats = new Runnable() {
+    @Override
+    public void run() {
+      if (destroyed) {
+        return;
+      }
+      showStats(fireLatenessView, R.string.fire_lateness_stats,
+          AlarmEventLog.fireLateness(db));
+      showStats(timeToSoundView, R.string.time_to_sound_stats,
+          AlarmEventLog.timeToSound(db));
+      showStorageStats();
+    }
+  };
+
+  private void showStats(TextView view, int format,
+      AlarmEventLog.Percentiles stats) {
+    view.setText(getString(format, stats.count(), stats.p50(), stats.p95(),
+        stats.p99()));
+  }
+
+  private void showServiceStats(Bundle stats) {
+    int restored = stats.getInt(AlarmClockService.STAT_RESTORED_ALARMS);
+    long fileMicros = stats.getLong(AlarmClockService.STAT_PENDING_FILE_MICROS);
+    String startup = fileMicros >= 0
+        ? getString(R.string.startup_file_stats, restored, fileMicros)
+        : getString(R.string.startup_database_stats, restored,
+            stats.getLong(AlarmClockService.STAT_STARTUP_MILLIS));
+    serviceStatsView.setText(startup + "\n" + getString(
+        R.string.reschedule_stats,
+        stats.getLong(AlarmClockService.STAT_RESCHEDULE_MILLIS),
+        stats.getLong(AlarmClockService.STAT_IMPORT_MILLIS)));
+  }
+
+  private void showStorageStats() {
+    storageStatsView.setText(getString(R.string.cache_stats,
+        AlarmRepository.hits(), AlarmRepository.misses()) + "\n"
+        + getString(R.string.write_stats, AlarmWriteQueue.transactionCount(),
+            AlarmWriteQueue.rowCount(),
+            AlarmWriteQueue.transactionsPerSecond()));
   }
 
   @Override
@@ -71,8 +141,9 @@ public final class ActivityPendingAlarms extends AppCompatActivity {
       AlarmClockInterface clock = AlarmClockInterface.Stub.asInterface(service);
       try {
         ArrayAdapter<AlarmTime> adapter = new ArrayAdapter<>(
-            getApplicationContext(), R.layout.pending_alarms_item, clock.pendingAlarmTimes());
+            getApplicationContext(), R.layout.pending_alarms_item, clock.pendingAlarms().times());
         listView.setAdapter(adapter);
+        showServiceStats(clock.serviceStats());
       } catch (RemoteException e) {
         e.printStackTrace();
       }
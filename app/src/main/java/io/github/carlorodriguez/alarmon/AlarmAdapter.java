@@ -5,7 +5,6 @@ import android.app.DialogFragment;
 import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
-import android.os.RemoteException;
 import android.support.v7.app.AlertDialog;
 import android.support.v7.widget.RecyclerView;
 import android.support.v7.widget.SwitchCompat;
@@ -22,6 +21,9 @@ public class AlarmAdapter extends RecyclerView.Adapter<AlarmAdapter.ContentViewH
     private ArrayList<AlarmInfo> alarmInfos;
     private AlarmClockServiceBinder service;
     private Context context;
+    // Pending alarms fetched once for every row bound until the next
+    // refreshPendingAlarms(), or null until then.
+    private PendingAlarmSnapshot pendingAlarms;
 
     public AlarmAdapter(ArrayList<AlarmInfo> alarmInfos,
             AlarmClockServiceBinder service, Context context) {
@@ -34,6 +36,37 @@ public class AlarmAdapter extends RecyclerView.Adapter<AlarmAdapter.ContentViewH
         return alarmInfos;
     }
 
+    /**
+     * @return The position of this alarm, or -1 if it isn't listed.
+     */
+    public int indexOf(long alarmId) {
+        for (int i = 0; i < alarmInfos.size(); i++) {
+            if (alarmInfos.get(i).getAlarmId() == alarmId) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Rebinds every row against a fresh copy of the pending alarms.
+     */
+    public void refreshPendingAlarms() {
+        pendingAlarms = null;
+
+        notifyDataSetChanged();
+    }
+
+    public void replaceAt(int position, AlarmInfo info) {
+        alarmInfos.set(position, info);
+
+        // Its pending time may have changed with it.
+        pendingAlarms = null;
+
+        notifyItemChanged(position);
+    }
+
     public void removeAt(int position) {
         alarmInfos.remove(position);
 
@@ -60,12 +93,11 @@ public class AlarmAdapter extends RecyclerView.Adapter<AlarmAdapter.ContentViewH
 
         AlarmTime time = null;
         // See if there is an instance of this alarm scheduled.
-        if (service.clock() != null) {
-            try {
-                time = service.clock().pendingAlarm(info.getAlarmId());
-            } catch (RemoteException e) {
-                e.printStackTrace();
-            }
+        if (pendingAlarms == null) {
+            pendingAlarms = service.pendingAlarms();
+        }
+        if (pendingAlarms != null) {
+            time = pendingAlarms.time(info.getAlarmId());
         }
         // If we couldn't find a pending alarm, display the configured time.
         if (time == null) {
@@ -15,83 +15,260 @@
 
 package io.github.carlorodriguez.alarmon;
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.concurrent.Callable;
+
 import android.content.Context;
-import android.os.RemoteException;
+import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
 import android.widget.Toast;
 
 public final class AlarmClockInterfaceStub extends AlarmClockInterface.Stub {
   private Context context;
   private AlarmClockService service;
 
+  // Every call which changes the schedule runs on the service's scheduler
+  // thread; reads come from its published snapshot.
   AlarmClockInterfaceStub(Context context, AlarmClockService service) {
     this.context = context;
     this.service = service;
   }
 
   @Override
-  public AlarmTime pendingAlarm(long alarmId) throws RemoteException {
-    return null;
-   // return service.pendingAlarm(alarmId);
+  public AlarmTime pendingAlarm(long alarmId) {
+    return service.pendingAlarm(alarmId);
   }
 
   @Override
-  public AlarmTime[] pendingAlarmTimes() throws RemoteException {
-    return null;
-   //  return service.pendingAlarmTimes();
+  public AlarmTime[] pendingAlarmTimes() {
+    return service.pendingAlarmTimes();
   }
 
   @Override
-  public long resurrectAlarm(AlarmTime time, String alarmName, boolean enabled)
-      throws RemoteException {
+  public PendingAlarmSnapshot pendingAlarms() {
+    return service.snapshot();
+  }
+
+  @Override
+  public Bundle serviceStats() {
+    return service.stats();
+  }
+
+  @Override
+  public long resurrectAlarm(final AlarmTime time, final String alarmName,
+      final boolean enabled) {
     // debugToast("RESURRECT ALARM " + time.toString());
-    return service.resurrectAlarm(time, alarmName, enabled);
+    Long alarmId = service.callOnScheduler(new Callable<Long>() {
+      @Override
+      public Long call() {
+        return service.resurrectAlarm(time, alarmName, enabled);
+      }
+    });
+    return alarmId != null ? alarmId : AlarmClockServiceBinder.NO_ALARM_ID;
   }
 
   @Override
-  public void createAlarm(AlarmTime time) throws RemoteException {
+  public void createAlarm(final AlarmTime time) {
     // debugToast("CREATE ALARM " + time.toString());
-    service.createAlarm(time);
+    service.runOnScheduler(new Runnable() {
+      @Override
+      public void run() {
+        service.createAlarm(time);
+      }
+    });
   }
 
   @Override
-  public void deleteAlarm(long alarmId) throws RemoteException {
+  public void deleteAlarm(final long alarmId) {
     //  debugToast("DELETE ALARM " + alarmId);
-    service.deleteAlarm(alarmId);
+    service.runOnScheduler(new Runnable() {
+      @Override
+      public void run() {
+        service.deleteAlarm(alarmId);
+      }
+    });
   }
 
   @Override
-  public void deleteAllAlarms() throws RemoteException {
+  public void deleteAllAlarms() {
     // debugToast("DELETE ALL ALARMS");
-    service.deleteAllAlarms();
+    service.runOnScheduler(new Runnable() {
+      @Override
+      public void run() {
+        service.deleteAllAlarms();
+      }
+    });
+  }
+
+  @Override
+  public void deleteAlarms(final long[] alarmIds) {
+    // debugToast("DELETE " + alarmIds.length + " ALARMS");
+    service.runOnScheduler(new Runnable() {
+      @Override
+      public void run() {
+        service.deleteAlarms(alarmIds);
+      }
+    });
   }
 
   @Override
-  public void scheduleAlarm(long alarmId) throws RemoteException {
+  public void scheduleAlarm(final long alarmId) {
     //  debugToast("SCHEDULE ALARM " + alarmId);
-    service.scheduleAlarm(alarmId);
+    service.runOnScheduler(new Runnable() {
+      @Override
+      public void run() {
+        service.scheduleAlarm(alarmId);
+      }
+    });
   }
 
   @Override
-  public void unscheduleAlarm(long alarmId) {
+  public void scheduleAlarms(final long[] alarmIds) {
+    //  debugToast("SCHEDULE " + alarmIds.length + " ALARMS");
+    service.runOnScheduler(new Runnable() {
+      @Override
+      public void run() {
+        service.scheduleAlarms(alarmIds);
+      }
+    });
+  }
+
+  @Override
+  public void unscheduleAlarm(final long alarmId) {
     //  debugToast("UNSCHEDULE ALARM " + alarmId);
-    service.dismissAlarm(alarmId);
+    service.runOnScheduler(new Runnable() {
+      @Override
+      public void run() {
+        service.dismissAlarm(alarmId);
+      }
+    });
   }
 
-  public void acknowledgeAlarm(long alarmId) {
+  @Override
+  public void unscheduleAlarms(final long[] alarmIds) {
+    //  debugToast("UNSCHEDULE " + alarmIds.length + " ALARMS");
+    service.runOnScheduler(new Runnable() {
+      @Override
+      public void run() {
+        service.dismissAlarms(alarmIds);
+      }
+    });
+  }
+
+  public void acknowledgeAlarm(final long alarmId) {
     // debugToast("ACKNOWLEDGE ALARM " + alarmId);
-    service.acknowledgeAlarm(alarmId);
+    service.runOnScheduler(new Runnable() {
+      @Override
+      public void run() {
+        service.acknowledgeAlarm(alarmId);
+      }
+    });
   }
 
   @Override
-  public void snoozeAlarm(long alarmId) throws RemoteException {
+  public void snoozeAlarm(final long alarmId) {
     // debugToast("SNOOZE ALARM " + alarmId);
-    service.snoozeAlarm(alarmId);
+    service.runOnScheduler(new Runnable() {
+      @Override
+      public void run() {
+        service.snoozeAlarm(alarmId);
+      }
+    });
   }
 
   @Override
-  public void snoozeAlarmFor(long alarmId, int minutes) throws RemoteException {
+  public void snoozeAlarmFor(final long alarmId, final int minutes) {
     // debugToast("SNOOZE ALARM " + alarmId + " for " + minutes);
-    service.snoozeAlarmFor(alarmId, minutes);
+    service.runOnScheduler(new Runnable() {
+      @Override
+      public void run() {
+        service.snoozeAlarmFor(alarmId, minutes);
+      }
+    });
+  }
+
+  @Override
+  public void snoozeAlarmsFor(final long[] alarmIds, final int minutes) {
+    // debugToast("SNOOZE " + alarmIds.length + " ALARMS for " + minutes);
+    service.runOnScheduler(new Runnable() {
+      @Override
+      public void run() {
+        service.snoozeAlarmsFor(alarmIds, minutes);
+      }
+    });
+  }
+
+  @Override
+  public int importAlarms(final ParcelFileDescriptor source) {
+    // debugToast("IMPORT ALARMS");
+    Integer imported = service.callOnScheduler(new Callable<Integer>() {
+      @Override
+      public Integer call() {
+        try {
+          Reader in = new BufferedReader(new InputStreamReader(
+              new ParcelFileDescriptor.AutoCloseInputStream(source), "UTF-8"));
+          try {
+            return service.importAlarms(in);
+          } finally {
+            in.close();
+          }
+        } catch (IOException e) {
+          e.printStackTrace();
+          return -1;
+        }
+      }
+    });
+    if (imported == null) {
+      // The service was destroyed before the call ran.
+      close(source);
+      return -1;
+    }
+    return imported;
+  }
+
+  @Override
+  public int exportAlarms(final ParcelFileDescriptor destination) {
+    // debugToast("EXPORT ALARMS");
+    Integer exported = service.callOnScheduler(new Callable<Integer>() {
+      @Override
+      public Integer call() {
+        try {
+          Writer out = new BufferedWriter(new OutputStreamWriter(
+              new ParcelFileDescriptor.AutoCloseOutputStream(destination),
+              "UTF-8"));
+          try {
+            return service.exportAlarms(out);
+          } finally {
+            out.close();
+          }
+        } catch (IOException e) {
+          e.printStackTrace();
+          return -1;
+        }
+      }
+    });
+    if (exported == null) {
+      // The service was destroyed before the call ran.
+      close(destination);
+      return -1;
+    }
+    return exported;
+  }
+
+  @Override
+  public void registerListener(AlarmClockListener listener) {
+    service.registerListener(listener);
+  }
+
+  @Override
+  public void unregisterListener(AlarmClockListener listener) {
+    service.unregisterListener(listener);
   }
 
   private void debugToast(String message) {
@@ -99,4 +276,12 @@ public final class AlarmClockInterfaceStub extends AlarmClockInterface.Stub {
       Toast.makeText(context, message, Toast.LENGTH_SHORT).show();
     }
   }
+
+  private static void close(ParcelFileDescriptor descriptor) {
+    try {
+      descriptor.close();
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+  }
 }
@@ -15,8 +15,18 @@
 
 package io.github.carlorodriguez.alarmon;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
 
 import android.app.Notification;
 import android.app.NotificationManager;
@@ -31,11 +41,17 @@ import android.os.Build;
 import android.os.Bundle;
 import android.os.Environment;
 import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.IBinder;
+import android.os.Looper;
+import android.os.RemoteCallbackList;
+import android.os.RemoteException;
+import android.os.SystemClock;
 import android.preference.PreferenceManager;
 import android.provider.Settings;
 import android.support.v4.app.NotificationCompat;
 import android.support.v4.content.ContextCompat;
+import android.support.v4.util.LongSparseArray;
 import android.widget.Toast;
 
 import org.apache.commons.lang3.text.StrSubstitutor;
@@ -46,11 +62,69 @@ public final class AlarmClockService extends Service {
   public final static int COMMAND_NOTIFICATION_REFRESH = 2;
   public final static int COMMAND_DEVICE_BOOT = 3;
   public final static int COMMAND_TIMEZONE_CHANGE = 4;
+  public final static int COMMAND_DISPATCH_DUE = 5;
 
   public final static int NOTIFICATION_BAR_ID = 69;
 
+  // Change bits passed to AlarmClockListener.alarmsChanged().
+  public final static int CHANGE_SCHEDULED = 1;
+  public final static int CHANGE_UNSCHEDULED = 1 << 1;
+  public final static int CHANGE_FIRED = 1 << 2;
+  public final static int CHANGE_ACKNOWLEDGED = 1 << 3;
+  public final static int CHANGE_SNOOZED = 1 << 4;
+  public final static int CHANGE_NEXT_ALARM = 1 << 5;
+
+  // Keys of the Bundle returned by stats().
+  public final static String STAT_RESTORED_ALARMS = "restored_alarms";
+  public final static String STAT_STARTUP_MILLIS = "startup_millis";
+  public final static String STAT_PENDING_FILE_MICROS = "pending_file_micros";
+  public final static String STAT_RESCHEDULE_MILLIS = "reschedule_millis";
+  public final static String STAT_IMPORT_MILLIS = "import_millis";
+
+  // Alarms due within this long after the armed alarm are dispatched together.
+  private final static long DISPATCH_WINDOW_MILLIS =
+      AlarmUtil.Interval.SECOND.millis();
+  // Saved alarms which came due less than this long before a cold start are
+  // still dispatched.
+  private final static long LATE_DISPATCH_MILLIS =
+      10 * AlarmUtil.Interval.MINUTE.millis();
+
+  // db and pendingAlarms are confined to the scheduler thread.  Binder
+  // calls and start commands are queued onto it, and readers on other
+  // threads use the snapshot published after every task.
+  private HandlerThread schedulerThread;
+  private Handler scheduler;
   private DbAccessor db;
+  private AlarmRepository alarms;
   private PendingAlarmList pendingAlarms;
+  private volatile PendingAlarmSnapshot snapshot = PendingAlarmSnapshot.EMPTY;
+  private int publishedChangeCount = -1;
+  // Occurrences of the published snapshot, projected on first use and
+  // dropped when the next snapshot is published.
+  private final Object projectionLock = new Object();
+  private OccurrenceProjection projection;
+  // Duration of the last rescheduleAll() call.
+  private volatile long lastRescheduleMillis;
+  // Duration of the last importAlarms() call.
+  private volatile long lastImportMillis;
+  // Time spent restoring enabled alarms in onCreate(), and how many.
+  private volatile long startupMillis;
+  private volatile int restoredAlarmCount;
+  // Copy of the pending alarms kept on disk for the next cold start, and
+  // how long loading it took (-1 if it couldn't be used).
+  private PendingAlarmFile pendingFile;
+  private volatile long pendingFileLoadMicros = -1;
+  // Listeners are told about changes once the tasks queued together have
+  // run, so a burst of changes reaches them as one call.  The pending
+  // changes are confined to the scheduler thread.
+  private final RemoteCallbackList<AlarmClockListener> listeners =
+      new RemoteCallbackList<>();
+  private int unsentChanges;
+  private LongSparseArray<Boolean> unsentAlarmIds = new LongSparseArray<>();
+  private boolean broadcastPosted;
+  // Changes made, and listener calls which delivered them.
+  private volatile int changeCount;
+  private volatile int listenerCallCount;
 
   @Override
   public void onCreate() {
@@ -66,36 +140,282 @@ public final class AlarmClockService extends Service {
                   Environment.getExternalStorageDirectory().getPath()));
     }
 
+    schedulerThread = new HandlerThread("AlarmScheduler");
+    schedulerThread.start();
+    scheduler = new Handler(schedulerThread.getLooper());
+
+    post(new Runnable() {
+      @Override
+      public void run() {
+        restoreAlarms();
+      }
+    });
+
+    ReceiverNotificationRefresh.startRefreshing(getApplicationContext());
+  }
+
+  private void restoreAlarms() {
     // Access to in-memory and persistent data structures.
     db = new DbAccessor(getApplicationContext());
-    pendingAlarms = new PendingAlarmList(getApplicationContext());
+    alarms = new AlarmRepository(db);
+    pendingAlarms = new PendingAlarmList(getApplicationContext(),
+        PendingAlarmList.Registration.NEXT_DUE);
+    pendingFile = new PendingAlarmFile(
+        new File(getFilesDir(), PendingAlarmFile.FILE_NAME));
+
+    // Prefer the pending alarms saved by the last process; the database is
+    // checked against them afterwards.
+    long loadStart = System.nanoTime();
+    PendingAlarmSnapshot saved = pendingFile.load();
+    if (saved != null) {
+      restoreAlarms(saved);
+      pendingFileLoadMicros = (System.nanoTime() - loadStart) / 1000;
+      post(new Runnable() {
+        @Override
+        public void run() {
+          reconcileAlarms();
+        }
+      });
+      return;
+    }
 
     // Schedule enabled alarms during initial startup.
-    for (Long alarmId : db.getEnabledAlarms()) {
-      if (pendingAlarms.pendingTime(alarmId) != null) {
-        continue;
+    long start = SystemClock.elapsedRealtime();
+    pendingAlarms.beginBatch();
+    try {
+      restoredAlarmCount = db.forEachEnabledAlarm(new DbAccessor.AlarmInfoVisitor() {
+        @Override
+        public void visit(AlarmInfo info) {
+          if (pendingAlarms.pendingTime(info.getAlarmId()) == null) {
+            pendingAlarms.put(info.getAlarmId(), info.getTime());
+          }
+        }
+      });
+    } finally {
+      pendingAlarms.endBatch();
+    }
+    startupMillis = SystemClock.elapsedRealtime() - start;
+  }
+
+  private void restoreAlarms(PendingAlarmSnapshot saved) {
+    // Alarms which came due shortly before this process started keep their
+    // saved time, so that they are registered in the past and dispatched
+    // right away.  Older ones are left for reconcileAlarms() to reschedule
+    // from the database: a saved snooze time must not become a new alarm.
+    long[] stale = pendingAlarms.restore(saved.alarmIds(), saved.times(),
+        TimeSource.get().currentTimeMillis() - LATE_DISPATCH_MILLIS);
+    restoredAlarmCount = saved.size() - stale.length;
+  }
+
+  // Brings alarms restored from the pending alarm file in line with the
+  // database, in case the file missed the last change before the process
+  // died.  Alarms left out of the restore are scheduled at the time
+  // computed from their database row.
+  private void reconcileAlarms() {
+    final LongSparseArray<AlarmTime> enabled = new LongSparseArray<>();
+    db.forEachEnabledAlarm(new DbAccessor.AlarmInfoVisitor() {
+      @Override
+      public void visit(AlarmInfo info) {
+        enabled.put(info.getAlarmId(), info.getTime());
       }
-      if (AppSettings.isDebugMode(getApplicationContext())) {
-        // Toast.makeText(getApplicationContext(), "RENABLE " + alarmId, Toast.LENGTH_SHORT).show();
+    });
+
+    pendingAlarms.beginBatch();
+    try {
+      for (long alarmId : pendingAlarms.pendingAlarms()) {
+        if (enabled.get(alarmId) == null) {
+          pendingAlarms.remove(alarmId);
+        }
+      }
+      for (int i = 0; i < enabled.size(); ++i) {
+        if (pendingAlarms.pendingTime(enabled.keyAt(i)) == null) {
+          pendingAlarms.put(enabled.keyAt(i), enabled.valueAt(i));
+        }
       }
+    } finally {
+      pendingAlarms.endBatch();
+    }
+  }
 
-        AlarmTime alarmTime = null;
+  /**
+   * Queues a task on the scheduler thread.  The pending alarm snapshot is
+   * republished when it completes.
+   * @return false if the scheduler has already been shut down.
+   */
+  private boolean post(final Runnable task) {
+    return scheduler.post(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          task.run();
+        } finally {
+          publishSnapshot();
+        }
+      }
+    });
+  }
 
-        AlarmInfo info = db.readAlarmInfo(alarmId);
+  /**
+   * Runs a task on the scheduler thread and waits for it to complete.
+   * Called from the scheduler thread itself, the task runs immediately.
+   * Once the service has been destroyed the task is dropped.
+   */
+  void runOnScheduler(Runnable task) {
+    callOnScheduler(Executors.callable(task));
+  }
 
-        if (info != null) {
-            alarmTime = info.getTime();
-        }
+  /**
+   * Runs a task on the scheduler thread and waits for its result.
+   * @return The result of the task, or null if the service has been
+   * destroyed (binder calls can still arrive after onDestroy()) or the
+   * calling thread was interrupted while waiting.
+   */
+  <T> T callOnScheduler(Callable<T> task) {
+    if (Looper.myLooper() == scheduler.getLooper()) {
+      try {
+        return task.call();
+      } catch (RuntimeException e) {
+        throw e;
+      } catch (Exception e) {
+        throw new RuntimeException(e);
+      }
+    }
 
-      pendingAlarms.put(alarmId, alarmTime);
+    FutureTask<T> future = new FutureTask<>(task);
+    if (!post(future)) {
+      return null;
     }
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return null;
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new RuntimeException(e.getCause());
+    }
+  }
 
-    ReceiverNotificationRefresh.startRefreshing(getApplicationContext());
+  private void publishSnapshot() {
+    if (pendingAlarms == null) {
+      return;
+    }
+    PendingAlarmSnapshot current = snapshot;
+    if (pendingAlarms.changeCount() != publishedChangeCount
+        || pendingAlarms.registrationCount() != current.registrationCount()) {
+      publishedChangeCount = pendingAlarms.changeCount();
+      snapshot = pendingAlarms.snapshot();
+      synchronized (projectionLock) {
+        projection = null;
+      }
+      if (snapshot.nextAlarmId() != current.nextAlarmId()
+          || nextFireMillis(snapshot) != nextFireMillis(current)) {
+        changed(AlarmClockServiceBinder.NO_ALARM_ID, CHANGE_NEXT_ALARM);
+      }
+      try {
+        pendingFile.write(snapshot);
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+    }
+  }
+
+  /**
+   * @return The pending alarms as of the last completed scheduler task.
+   * Safe to call from any thread.
+   */
+  public PendingAlarmSnapshot snapshot() {
+    return snapshot;
+  }
+
+  private static long nextFireMillis(PendingAlarmSnapshot snapshot) {
+    AlarmTime next = snapshot.nextAlarmTime();
+    return next == null ? 0 : next.fireMillis();
   }
 
+  public void registerListener(AlarmClockListener listener) {
+    listeners.register(listener);
+  }
+
+  public void unregisterListener(AlarmClockListener listener) {
+    listeners.unregister(listener);
+  }
+
+  /**
+   * @return The number of changes made to the pending alarms.
+   */
+  public int changeCount() {
+    return changeCount;
+  }
+
+  /**
+   * @return The number of listener calls made.  With a single listener,
+   * changeCount() over this is how many wakeups coalescing saved per call.
+   */
+  public int listenerCallCount() {
+    return listenerCallCount;
+  }
+
+  // Called on the scheduler thread.
+  private void changed(long alarmId, int change) {
+    unsentChanges |= change;
+    if (alarmId != AlarmClockServiceBinder.NO_ALARM_ID) {
+      unsentAlarmIds.put(alarmId, Boolean.TRUE);
+    }
+    ++changeCount;
+    if (!broadcastPosted) {
+      // Behind every task already queued, including the one running now.
+      broadcastPosted = true;
+      scheduler.post(broadcastChanges);
+    }
+  }
+
+  private void changed(long[] alarmIds, int change) {
+    for (long alarmId : alarmIds) {
+      changed(alarmId, change);
+    }
+  }
+
+  private final Runnable broadcastChanges = new Runnable() {
+    @Override
+    public void run() {
+      broadcastPosted = false;
+      int changes = unsentChanges;
+      long[] alarmIds = new long[unsentAlarmIds.size()];
+      for (int i = 0; i < alarmIds.length; ++i) {
+        alarmIds[i] = unsentAlarmIds.keyAt(i);
+      }
+      unsentChanges = 0;
+      unsentAlarmIds.clear();
+
+      long nextMillis = nextFireMillis(snapshot);
+      int count = listeners.beginBroadcast();
+      try {
+        for (int i = 0; i < count; ++i) {
+          try {
+            listeners.getBroadcastItem(i).alarmsChanged(changes, alarmIds,
+                nextMillis);
+          } catch (RemoteException e) {
+            // The list drops listeners whose process has died.
+          }
+        }
+      } finally {
+        listeners.finishBroadcast();
+      }
+      listenerCallCount += count;
+    }
+  };
+
   @Override
-  public int onStartCommand(Intent intent, int flags, int startId) {
-    handleStart(intent);
+  public int onStartCommand(final Intent intent, int flags, int startId) {
+    post(new Runnable() {
+      @Override
+      public void run() {
+        handleStart(intent);
+      }
+    });
     return START_STICKY;
   }
 
@@ -104,11 +424,13 @@ public final class AlarmClockService extends Service {
       Bundle extras = intent.getExtras();
       int command = extras.getInt(COMMAND_EXTRA, COMMAND_UNKNOWN);
 
-      final Handler handler = new Handler();
+      final Handler handler = scheduler;
       final Runnable maybeShutdown = new Runnable() {
         @Override
         public void run() {
-          if (pendingAlarms.size() == 0) {
+          // An alarm which is still ringing keeps the service running, so
+          // that acknowledging it can re-arm a repeating alarm.
+          if (pendingAlarms.isIdle()) {
             stopSelf();
           }
         }
@@ -127,12 +449,11 @@ public final class AlarmClockService extends Service {
           if (AppSettings.isDebugMode(getApplicationContext())) {
             //Toast.makeText(getApplicationContext(), "TIMEZONE CHANGE, RESCHEDULING...", Toast.LENGTH_SHORT).show();
           }
-          for (long alarmId : pendingAlarms.pendingAlarms()) {
-            scheduleAlarm(alarmId);
-            if (AppSettings.isDebugMode(getApplicationContext())) {
-              // Toast.makeText(getApplicationContext(), "ALARM " + alarmId, Toast.LENGTH_SHORT).show();
-            }
-          }
+          rescheduleAll();
+          handler.post(maybeShutdown);
+          break;
+        case COMMAND_DISPATCH_DUE:
+          dispatchDueAlarms(AlarmUtil.alarmUriToId(intent.getData()));
           handler.post(maybeShutdown);
           break;
         default:
@@ -141,6 +462,54 @@ public final class AlarmClockService extends Service {
     }
   }
 
+  /**
+   * Starts the notification service for every pending alarm due in the
+   * current dispatch window and re-arms the AlarmManager for the next one.
+   * @param firedAlarmId The alarm whose intent fired.  ReceiverAlarm already
+   *                     holds its wake lock.
+   */
+  private void dispatchDueAlarms(long firedAlarmId) {
+    long[] due = pendingAlarms.takeDue(
+        TimeSource.get().currentTimeMillis() + DISPATCH_WINDOW_MILLIS);
+
+    // The fired alarm is always delivered.  It is missing from the due list
+    // if the process died before the wake up and the alarm was rescheduled
+    // from the database.
+    notifyAlarm(firedAlarmId);
+    changed(firedAlarmId, CHANGE_FIRED);
+
+    for (long alarmId : due) {
+      if (alarmId == firedAlarmId) {
+        continue;
+      }
+      try {
+        WakeLock.acquire(getApplicationContext(), alarmId);
+      } catch (WakeLock.WakeLockException e) {
+        // Already being delivered by its own intent.
+        continue;
+      }
+      // Its fire time was in this window but isn't known any more, so this
+      // firing counts towards time to sound but not lateness.
+      AlarmEventLog.record(getApplicationContext(), alarmId, AlarmEventLog.FIRED);
+      notifyAlarm(alarmId);
+      changed(alarmId, CHANGE_FIRED);
+    }
+
+    refreshNotification();
+  }
+
+  private void notifyAlarm(long alarmId) {
+    Intent notifyService = new Intent(getApplicationContext(),
+        NotificationService.class);
+    notifyService.setData(AlarmUtil.alarmIdToUri(alarmId));
+
+    startService(notifyService);
+  }
+
+  public int registrationCount() {
+    return snapshot.registrationCount();
+  }
+
   private void refreshNotification() {
       String resolvedString = getString(R.string.no_pending_alarms);
 
@@ -174,17 +543,13 @@ public final class AlarmClockService extends Service {
       String notificationTitle = getString(R.string.app_name);
 
       if (pendingAlarms.nextAlarmId() != AlarmClockServiceBinder.NO_ALARM_ID) {
-          DbAccessor db = new DbAccessor(getApplicationContext());
-
-          AlarmInfo alarmInfo = db.readAlarmInfo(pendingAlarms.nextAlarmId());
+          AlarmInfo alarmInfo = alarms.readAlarmInfo(pendingAlarms.nextAlarmId());
 
           if (alarmInfo != null) {
               notificationTitle = alarmInfo.getName() != null && !alarmInfo.getName().isEmpty()
                       ? alarmInfo.getName()
                       : getString(R.string.app_name);
           }
-
-          db.closeConnections();
       }
 
       Notification notification = builder
@@ -255,7 +620,20 @@ public final class AlarmClockService extends Service {
   @Override
   public void onDestroy() {
     super.onDestroy();
-    db.closeConnections();
+    // Close the database once queued tasks are done, then stop the thread.
+    scheduler.post(new Runnable() {
+      @Override
+      public void run() {
+        if (db != null) {
+          db.closeConnections();
+        }
+        if (pendingFile != null) {
+          pendingFile.close();
+        }
+        listeners.kill();
+        Looper.myLooper().quit();
+      }
+    });
 
     ReceiverNotificationRefresh.stopRefreshing(getApplicationContext());
 
@@ -277,7 +655,14 @@ public final class AlarmClockService extends Service {
     // the service would shutdown after the last un-bind, but it was explicitly
     // started in onBind(). If there are no pending alarms, explicitly stop
     // the service.
-    if (pendingAlarms.size() == 0) {
+    Boolean idle = callOnScheduler(new Callable<Boolean>() {
+      @Override
+      public Boolean call() {
+        return pendingAlarms.isIdle();
+      }
+    });
+    // A null result means the service is already going away.
+    if (idle == null || idle) {
       stopSelf();
       return false;
     }
@@ -287,15 +672,35 @@ public final class AlarmClockService extends Service {
   }
 
   public AlarmTime pendingAlarm(long alarmId) {
-    return pendingAlarms.pendingTime(alarmId);
+    return snapshot.time(alarmId);
   }
 
   public AlarmTime[] pendingAlarmTimes() {
-    return pendingAlarms.pendingTimes();
+    return snapshot.times();
+  }
+
+  /**
+   * Lists the firings of the pending alarms in a window.  Calls made between
+   * two changes share one projection and its cache of the first
+   * occurrences.  A projection is never changed once its cache is filled,
+   * so iterators are safe from any thread and keep listing the alarms as
+   * they were when they were created.
+   */
+  public Iterator<OccurrenceProjection.Occurrence> occurrences(
+      long fromMillis, long untilMillis) {
+    synchronized (projectionLock) {
+      if (projection == null || !projection.isValid()) {
+        PendingAlarmSnapshot current = snapshot;
+        projection = new OccurrenceProjection();
+        projection.reset(current.alarmIds(), current.times());
+      }
+      // Fills the cache, if it is empty, while the lock is held.
+      return projection.iterator(fromMillis, untilMillis);
+    }
   }
 
     public long resurrectAlarm(AlarmTime time, String alarmName, boolean enabled) {
-        long alarmId =  db.newAlarm(time, enabled, alarmName);
+        long alarmId =  alarms.newAlarm(time, enabled, alarmName);
 
         if (enabled) {
             scheduleAlarm(alarmId);
@@ -306,34 +711,63 @@ public final class AlarmClockService extends Service {
 
   public void createAlarm(AlarmTime time) {
     // Store the alarm in the persistent database.
-    long alarmId = db.newAlarm(time, true, "");
+    long alarmId = alarms.newAlarm(time, true, "");
     scheduleAlarm(alarmId);
   }
 
     public void deleteAlarm(long alarmId) {
         pendingAlarms.remove(alarmId);
+        changed(alarmId, CHANGE_UNSCHEDULED);
 
-        db.deleteAlarm(alarmId);
+        alarms.deleteAlarm(alarmId);
 
         refreshNotification();
     }
 
   public void deleteAllAlarms() {
-    for (Long alarmId : db.getAllAlarms()) {
-      deleteAlarm(alarmId);
+    List<Long> all = db.getAllAlarms();
+    long[] alarmIds = new long[all.size()];
+    int i = 0;
+    for (Long alarmId : all) {
+      alarmIds[i++] = alarmId;
+    }
+    deleteAlarms(alarmIds);
+  }
+
+  /**
+   * Deletes several alarms with one database transaction and one
+   * notification refresh.
+   */
+  public void deleteAlarms(long[] alarmIds) {
+    pendingAlarms.beginBatch();
+    try {
+      for (long alarmId : alarmIds) {
+        pendingAlarms.remove(alarmId);
+      }
+    } finally {
+      pendingAlarms.endBatch();
     }
+
+    changed(alarmIds, CHANGE_UNSCHEDULED);
+
+    alarms.deleteAlarms(alarmIds);
+
+    refreshNotification();
   }
 
   public void scheduleAlarm(long alarmId) {
-    AlarmInfo info = db.readAlarmInfo(alarmId);
+    AlarmInfo info = alarms.readAlarmInfo(alarmId);
     if (info == null) {
       return;
     }
     // Schedule the next alarm.
     pendingAlarms.put(alarmId, info.getTime());
+    AlarmEventLog.record(getApplicationContext(), alarmId,
+        AlarmEventLog.SCHEDULED, info.getTime().fireMillis());
+    changed(alarmId, CHANGE_SCHEDULED);
 
     // Mark the alarm as enabled in the database.
-    db.enableAlarm(alarmId, true);
+    alarms.enableAlarm(alarmId, true);
 
     // Now that there is more than one pending alarm, explicitly start the
     // service so that it continues to run after binding.
@@ -343,37 +777,146 @@ public final class AlarmClockService extends Service {
     refreshNotification();
   }
 
+  /**
+   * Schedules several alarms with one query, one database update and one
+   * notification refresh.  Ids which no longer exist are ignored.
+   */
+  public void scheduleAlarms(long[] alarmIds) {
+    List<AlarmInfo> infos = alarms.readAlarmInfo(alarmIds);
+    long[] foundIds = new long[infos.size()];
+    AlarmTime[] times = new AlarmTime[infos.size()];
+    for (int i = 0; i < foundIds.length; ++i) {
+      foundIds[i] = infos.get(i).getAlarmId();
+      times[i] = infos.get(i).getTime();
+    }
+
+    pendingAlarms.putAll(foundIds, times);
+    for (int i = 0; i < foundIds.length; ++i) {
+      AlarmEventLog.record(getApplicationContext(), foundIds[i],
+          AlarmEventLog.SCHEDULED, times[i].fireMillis());
+    }
+    changed(foundIds, CHANGE_SCHEDULED);
+    alarms.enableAlarms(foundIds, true);
+
+    final Intent self = new Intent(getApplicationContext(), AlarmClockService.class);
+    startService(self);
+
+    refreshNotification();
+  }
+
+  /**
+   * Recomputes the next occurrence of every pending alarm, for example after
+   * a time zone change.
+   */
+  public void rescheduleAll() {
+    long start = SystemClock.elapsedRealtime();
+    scheduleAlarms(pendingAlarms.pendingAlarms());
+    lastRescheduleMillis = SystemClock.elapsedRealtime() - start;
+  }
+
+  /**
+   * Imports alarms written by exportAlarms() and schedules the enabled ones
+   * with a single update of the pending alarms.
+   * @return The number of alarms imported.
+   */
+  public int importAlarms(Reader in) throws IOException {
+    long start = SystemClock.elapsedRealtime();
+    AlarmWriteQueue.flush();
+    AlarmTransfer.ImportResult result = new AlarmTransfer.ImportResult();
+    try {
+      AlarmTransfer.importAlarms(db, in, result);
+    } finally {
+      // The default settings may have been replaced, and the alarms
+      // committed before a malformed line are enabled.
+      alarms.invalidate();
+      long[] enabledIds = result.enabledAlarmIds();
+      if (enabledIds.length > 0) {
+        scheduleAlarms(enabledIds);
+      }
+      lastImportMillis = SystemClock.elapsedRealtime() - start;
+    }
+    return result.alarmCount();
+  }
+
+  /**
+   * @return The number of alarms exported.
+   */
+  public int exportAlarms(Writer out) throws IOException {
+    AlarmWriteQueue.flush();
+    return AlarmTransfer.exportAlarms(db, out);
+  }
+
+  /**
+   * @return The number of alarms restored by the last cold start and how
+   * long that took, how long loading the pending alarm file took (-1 if the
+   * alarms were restored from the database), and the duration of the last
+   * reschedule and import, under the STAT_ keys.
+   */
+  public Bundle stats() {
+    Bundle stats = new Bundle();
+    stats.putInt(STAT_RESTORED_ALARMS, restoredAlarmCount);
+    stats.putLong(STAT_STARTUP_MILLIS, startupMillis);
+    stats.putLong(STAT_PENDING_FILE_MICROS, pendingFileLoadMicros);
+    stats.putLong(STAT_RESCHEDULE_MILLIS, lastRescheduleMillis);
+    stats.putLong(STAT_IMPORT_MILLIS, lastImportMillis);
+    return stats;
+  }
+
   public void acknowledgeAlarm(long alarmId) {
-    AlarmInfo info = db.readAlarmInfo(alarmId);
+    AlarmInfo info = alarms.readAlarmInfo(alarmId);
     if (info == null) {
       return;
     }
 
     pendingAlarms.remove(alarmId);
+    changed(alarmId, CHANGE_ACKNOWLEDGED);
 
     AlarmTime time = info.getTime();
     if (time.repeats()) {
       pendingAlarms.put(alarmId, time);
+      AlarmEventLog.record(getApplicationContext(), alarmId,
+          AlarmEventLog.SCHEDULED, time.fireMillis());
     } else {
-      db.enableAlarm(alarmId, false);
+      alarms.enableAlarm(alarmId, false);
     }
     refreshNotification();
   }
 
   public void dismissAlarm(long alarmId) {
-    AlarmInfo info = db.readAlarmInfo(alarmId);
+    AlarmInfo info = alarms.readAlarmInfo(alarmId);
     if (info == null) {
       return;
     }
 
     pendingAlarms.remove(alarmId);
-    db.enableAlarm(alarmId, false);
+    changed(alarmId, CHANGE_UNSCHEDULED);
+    alarms.enableAlarm(alarmId, false);
+
+    refreshNotification();
+  }
+
+  /**
+   * Disables several alarms with one database update and one notification
+   * refresh.
+   */
+  public void dismissAlarms(long[] alarmIds) {
+    pendingAlarms.beginBatch();
+    try {
+      for (long alarmId : alarmIds) {
+        pendingAlarms.remove(alarmId);
+      }
+    } finally {
+      pendingAlarms.endBatch();
+    }
+
+    changed(alarmIds, CHANGE_UNSCHEDULED);
+    alarms.enableAlarms(alarmIds, false);
 
     refreshNotification();
   }
 
   public void snoozeAlarm(long alarmId) {
-    snoozeAlarmFor(alarmId, db.readAlarmSettings(alarmId).getSnoozeMinutes());
+    snoozeAlarmFor(alarmId, alarms.readAlarmSettings(alarmId).getSnoozeMinutes());
   }
 
   public void snoozeAlarmFor(long alarmId, int minutes) {
@@ -381,10 +924,39 @@ public final class AlarmClockService extends Service {
     pendingAlarms.remove(alarmId);
 
     // Calculate the time for the next alarm.
-    AlarmTime time = AlarmTime.snoozeInMillisUTC(minutes);
+    AlarmTime time = AlarmTime.snoozeInMillisUTC(minutes)
+        .withScheduleOf(scheduledTime(alarmId));
 
     // Schedule it.
     pendingAlarms.put(alarmId, time);
+    AlarmEventLog.record(getApplicationContext(), alarmId,
+        AlarmEventLog.SNOOZED, time.fireMillis());
+    changed(alarmId, CHANGE_SNOOZED);
+    refreshNotification();
+  }
+
+  // The time an alarm is set for in the database, or null if it is gone.
+  private AlarmTime scheduledTime(long alarmId) {
+    AlarmInfo info = alarms.readAlarmInfo(alarmId);
+    return info == null ? null : info.getTime();
+  }
+
+  /**
+   * Snoozes several alarms to the same time with one notification refresh.
+   */
+  public void snoozeAlarmsFor(long[] alarmIds, int minutes) {
+    AlarmTime time = AlarmTime.snoozeInMillisUTC(minutes);
+    AlarmTime[] times = new AlarmTime[alarmIds.length];
+    for (int i = 0; i < alarmIds.length; ++i) {
+      times[i] = time.withScheduleOf(scheduledTime(alarmIds[i]));
+    }
+
+    pendingAlarms.putAll(alarmIds, times);
+    for (long alarmId : alarmIds) {
+      AlarmEventLog.record(getApplicationContext(), alarmId,
+          AlarmEventLog.SNOOZED, time.fireMillis());
+    }
+    changed(alarmIds, CHANGE_SNOOZED);
     refreshNotification();
   }
-}
\ No newline at end of file
+}
@@ -15,12 +15,14 @@
 
 package io.github.carlorodriguez.alarmon;
 
+import java.util.Iterator;
 import java.util.LinkedList;
 import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
 import android.content.ServiceConnection;
 import android.os.IBinder;
+import android.os.ParcelFileDescriptor;
 import android.os.RemoteException;
 
 /**
@@ -105,6 +107,108 @@ public class AlarmClockServiceBinder {
     return id;
   }
 
+  /**
+   * Fetches every pending alarm with a single call to the service.
+   * @return The pending alarms, or null if the service isn't bound.
+   */
+  public PendingAlarmSnapshot pendingAlarms() {
+    if (clock == null) {
+      return null;
+    }
+
+    try {
+      return clock.pendingAlarms();
+    } catch (RemoteException e) {
+      e.printStackTrace();
+    }
+
+    return null;
+  }
+
+  /**
+   * Imports alarms from line-delimited JSON (see AlarmTransfer).
+   * @return The number of alarms imported, or -1 on failure or if the
+   * service isn't bound.
+   */
+  public int importAlarms(ParcelFileDescriptor source) {
+    if (clock == null) {
+      return -1;
+    }
+
+    int count = -1;
+
+    try {
+      count = clock.importAlarms(source);
+    } catch (RemoteException e) {
+      e.printStackTrace();
+    }
+
+    return count;
+  }
+
+  /**
+   * @return The number of alarms exported, or -1 on failure or if the
+   * service isn't bound.
+   */
+  public int exportAlarms(ParcelFileDescriptor destination) {
+    if (clock == null) {
+      return -1;
+    }
+
+    int count = -1;
+
+    try {
+      count = clock.exportAlarms(destination);
+    } catch (RemoteException e) {
+      e.printStackTrace();
+    }
+
+    return count;
+  }
+
+  /**
+   * Registers listener with the service once it is bound.
+   */
+  public void registerListener(AlarmClockListener listener) {
+    runOrDefer(new RegisterListener(listener));
+  }
+
+  public void unregisterListener(AlarmClockListener listener) {
+    // Until the service is bound, the listener can only be waiting to be
+    // registered.
+    if (clock == null) {
+      Iterator<ServiceCallback> i = callbacks.iterator();
+      while (i.hasNext()) {
+        ServiceCallback callback = i.next();
+        if (callback instanceof RegisterListener
+            && ((RegisterListener) callback).listener.asBinder()
+                == listener.asBinder()) {
+          i.remove();
+        }
+      }
+      return;
+    }
+
+    try {
+      clock.unregisterListener(listener);
+    } catch (RemoteException e) {
+      e.printStackTrace();
+    }
+  }
+
+  private class RegisterListener implements ServiceCallback {
+    final AlarmClockListener listener;
+
+    RegisterListener(AlarmClockListener listener) {
+      this.listener = listener;
+    }
+
+    @Override
+    public void run() throws RemoteException {
+      clock.registerListener(listener);
+    }
+  }
+
   public void createAlarm(final AlarmTime time) {
     runOrDefer(new ServiceCallback() {
       @Override
@@ -132,6 +236,15 @@ public class AlarmClockServiceBinder {
     });
   }
 
+  public void deleteAlarms(final long[] alarmIds) {
+    runOrDefer(new ServiceCallback() {
+      @Override
+      public void run() throws RemoteException {
+        clock.deleteAlarms(alarmIds);
+      }
+    });
+  }
+
   public void scheduleAlarm(final long alarmId) {
     runOrDefer(new ServiceCallback() {
       @Override
@@ -141,6 +254,15 @@ public class AlarmClockServiceBinder {
     });
   }
 
+  public void scheduleAlarms(final long[] alarmIds) {
+    runOrDefer(new ServiceCallback() {
+      @Override
+      public void run() throws RemoteException {
+        clock.scheduleAlarms(alarmIds);
+      }
+    });
+  }
+
   public void unscheduleAlarm(final long alarmId) {
     runOrDefer(new ServiceCallback() {
       @Override
@@ -150,6 +272,15 @@ public class AlarmClockServiceBinder {
     });
   }
 
+  public void unscheduleAlarms(final long[] alarmIds) {
+    runOrDefer(new ServiceCallback() {
+      @Override
+      public void run() throws RemoteException {
+        clock.unscheduleAlarms(alarmIds);
+      }
+    });
+  }
+
   public void acknowledgeAlarm(final long alarmId) {
     runOrDefer(new ServiceCallback() {
       @Override
@@ -167,4 +298,13 @@ public class AlarmClockServiceBinder {
       }
     });
   }
+
+  public void snoozeAlarmsFor(final long[] alarmIds, final int minutes) {
+    runOrDefer(new ServiceCallback() {
+      @Override
+      public void run() throws RemoteException {
+        clock.snoozeAlarmsFor(alarmIds, minutes);
+      }
+    });
+  }
 }
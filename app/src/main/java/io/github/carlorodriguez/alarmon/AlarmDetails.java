@@ -0,0 +1,38 @@
+/****************************************************************************
+ * Copyright 2010 kraigs.android@gmail.com
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ****************************************************************************/
+
+package io.github.carlorodriguez.alarmon;
+
+/**
+ * An alarm together with the settings it rings with.  If the alarm has no
+ * settings of its own, these are the default settings.
+ */
+public final class AlarmDetails {
+  private final AlarmInfo info;
+  private final AlarmSettings settings;
+
+  public AlarmDetails(AlarmInfo info, AlarmSettings settings) {
+    this.info = info;
+    this.settings = settings;
+  }
+
+  public AlarmInfo getInfo() {
+    return info;
+  }
+
+  public AlarmSettings getSettings() {
+    return settings;
+  }
+}
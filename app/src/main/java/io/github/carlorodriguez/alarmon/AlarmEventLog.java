@@ -0,0 +1,131 @@
+/****************************************************************************
+ * Copyright 2010 kraigs.android@gmail.com
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ****************************************************************************/
+
+
+package io.github.carlorodriguez.alarmon;
+
+import android.content.Context;
+
+/**
+ * An append-only log of what happens to each alarm: when it is scheduled
+ * for, when the AlarmManager actually delivers it, when its sound starts and
+ * how the user (or the timeout) deals with it.  Events are committed by
+ * AlarmWriteQueue along with the other writes, and the table keeps only the
+ * latest RETENTION of them, so the log is a bounded ring.
+ *
+ * The log is aggregated into percentiles of fire lateness (delivery time
+ * against the fire time the alarm was set for) and time to sound (sound
+ * start against the latest delivery of the same alarm).
+ */
+public final class AlarmEventLog {
+  public static final int SCHEDULED = 1;
+  public static final int FIRED = 2;
+  public static final int SOUND_STARTED = 3;
+  public static final int ACKNOWLEDGED = 4;
+  public static final int SNOOZED = 5;
+  public static final int AUTO_CANCELLED = 6;
+
+  static final int RETENTION = 1000;
+
+  /**
+   * One row of the log.
+   */
+  static final class Event {
+    final long alarmId;
+    final int type;
+    final long timeMillis;
+    // The fire time this event relates to, or 0.
+    final long targetMillis;
+
+    Event(long alarmId, int type, long timeMillis, long targetMillis) {
+      this.alarmId = alarmId;
+      this.type = type;
+      this.timeMillis = timeMillis;
+      this.targetMillis = targetMillis;
+    }
+  }
+
+  /**
+   * Nearest rank percentiles of a set of durations in millis.
+   */
+  public static final class Percentiles {
+    private final int count;
+    private final long p50;
+    private final long p95;
+    private final long p99;
+
+    // sorted must be in ascending order.
+    Percentiles(long[] sorted) {
+      count = sorted.length;
+      p50 = rank(sorted, 50);
+      p95 = rank(sorted, 95);
+      p99 = rank(sorted, 99);
+    }
+
+    public int count() {
+      return count;
+    }
+
+    public long p50() {
+      return p50;
+    }
+
+    public long p95() {
+      return p95;
+    }
+
+    public long p99() {
+      return p99;
+    }
+
+    private static long rank(long[] sorted, int percentile) {
+      if (sorted.length == 0) {
+        return 0;
+      }
+      int index = (sorted.length * percentile + 99) / 100 - 1;
+      return sorted[Math.max(index, 0)];
+    }
+  }
+
+  private AlarmEventLog() {}
+
+  /**
+   * Logs an event at the current time.
+   * @param targetMillis The fire time the event relates to, or 0.
+   */
+  public static void record(Context context, long alarmId, int type,
+      long targetMillis) {
+    AlarmWriteQueue.recordEvent(context, new Event(alarmId, type,
+        TimeSource.get().currentTimeMillis(), targetMillis));
+  }
+
+  public static void record(Context context, long alarmId, int type) {
+    record(context, alarmId, type, 0);
+  }
+
+  /**
+   * @return How late the AlarmManager delivered each logged firing.
+   */
+  public static Percentiles fireLateness(DbAccessor db) {
+    return new Percentiles(db.readFireLateness());
+  }
+
+  /**
+   * @return How long each logged sound took to start after its alarm fired.
+   */
+  public static Percentiles timeToSound(DbAccessor db) {
+    return new Percentiles(db.readTimeToSound());
+  }
+}
@@ -15,8 +15,6 @@
 
 package io.github.carlorodriguez.alarmon;
 
-import java.util.Calendar;
-
 import android.content.ContentValues;
 import android.database.Cursor;
 
@@ -27,6 +25,39 @@ import android.database.Cursor;
  * the alarm database for each of these pieces of data.
  */
 public final class AlarmInfo {
+  /**
+   * Reads alarms from the rows of a cursor.  Column indices are looked up
+   * once, and every row shares one occurrence calculator.
+   */
+  public static final class RowMapper {
+    private final OccurrenceCalculator calculator;
+    private final int idColumn;
+    private final int enabledColumn;
+    private final int nameColumn;
+    private final int timeColumn;
+    private final int dayOfWeekColumn;
+
+    public RowMapper(Cursor cursor) {
+      this(cursor, new OccurrenceCalculator());
+    }
+
+    public RowMapper(Cursor cursor, OccurrenceCalculator calculator) {
+      this.calculator = calculator;
+      idColumn = cursor.getColumnIndexOrThrow(DbHelper.ALARMS_COL__ID);
+      enabledColumn = cursor.getColumnIndexOrThrow(DbHelper.ALARMS_COL_ENABLED);
+      nameColumn = cursor.getColumnIndexOrThrow(DbHelper.ALARMS_COL_NAME);
+      timeColumn = cursor.getColumnIndexOrThrow(DbHelper.ALARMS_COL_TIME);
+      dayOfWeekColumn = cursor.getColumnIndexOrThrow(DbHelper.ALARMS_COL_DAY_OF_WEEK);
+    }
+
+    /**
+     * @param cursor The cursor this mapper was created for, positioned on
+     *               a row.
+     */
+    public AlarmInfo map(Cursor cursor) {
+      return new AlarmInfo(this, cursor);
+    }
+  }
 
   private long alarmId;
   private AlarmTime time;
@@ -34,12 +65,25 @@ public final class AlarmInfo {
   private String name;
 
   public AlarmInfo(Cursor cursor) {
-    alarmId = cursor.getLong(cursor.getColumnIndex(DbHelper.ALARMS_COL__ID));
-    enabled = cursor.getInt(cursor.getColumnIndex(DbHelper.ALARMS_COL_ENABLED)) == 1;
-    name = cursor.getString(cursor.getColumnIndex(DbHelper.ALARMS_COL_NAME));
-    int secondsAfterMidnight = cursor.getInt(cursor.getColumnIndex(DbHelper.ALARMS_COL_TIME));
-    int dowBitmask = cursor.getInt(cursor.getColumnIndex(DbHelper.ALARMS_COL_DAY_OF_WEEK));
-    time = BuildAlarmTime(secondsAfterMidnight, dowBitmask);
+    this(cursor, new OccurrenceCalculator());
+  }
+
+  /**
+   * Reads the alarm at the cursor's current row.  Pass the same calculator
+   * for every row of a cursor so they share one time snapshot.
+   * @param cursor Cursor positioned on an alarms row
+   * @param calculator Occurrence calculator
+   */
+  public AlarmInfo(Cursor cursor, OccurrenceCalculator calculator) {
+    this(new RowMapper(cursor, calculator), cursor);
+  }
+
+  private AlarmInfo(RowMapper mapper, Cursor cursor) {
+    alarmId = cursor.getLong(mapper.idColumn);
+    enabled = cursor.getInt(mapper.enabledColumn) == 1;
+    name = cursor.getString(mapper.nameColumn);
+    time = new AlarmTime(cursor.getInt(mapper.timeColumn),
+        cursor.getInt(mapper.dayOfWeekColumn), mapper.calculator);
   }
 
   public AlarmInfo(AlarmTime time, boolean enabled, String name) {
@@ -100,7 +144,7 @@ public final class AlarmInfo {
   }
 
     public void setDaysOfWeek(Week week) {
-        time.setDaysOfWeek(week);
+        time = new AlarmTime(time.secondsOfDay(), week.mask());
     }
 
   public boolean enabled() {
@@ -120,36 +164,10 @@ public final class AlarmInfo {
   }
 
   private static int TimeToInteger(AlarmTime time) {
-    Calendar c = time.calendar();
-    int hourOfDay = c.get(Calendar.HOUR_OF_DAY);
-    int minute = c.get(Calendar.MINUTE);
-    int second = c.get(Calendar.SECOND);
-    return hourOfDay * 3600 + minute * 60 + second;
+    return time.secondsOfDay();
   }
 
   private static int WeekToInteger(AlarmTime time) {
-    boolean[] bitmask = time.getDaysOfWeek().bitmask();
-    int dowBitmask = 0;
-    for (Week.Day day: Week.Day.values()) {
-      if (bitmask[day.ordinal()]) {
-        dowBitmask |= 1 << day.ordinal();
-      }
-    }
-    return dowBitmask;
-  }
-
-  private static AlarmTime BuildAlarmTime(int secondsAfterMidnight, int dowBitmask) {
-    int hours = secondsAfterMidnight % 3600;
-    int minutes = (secondsAfterMidnight - (hours * 3600)) % 60;
-    int seconds = (secondsAfterMidnight- (hours * 3600 + minutes * 60));
-
-    Week week = new Week();
-    for (Week.Day day : Week.Day.values()) {
-      if ((dowBitmask & 1 << day.ordinal()) > 0) {
-        week.addDay(day);
-      }
-    }
-
-    return new AlarmTime(hours, minutes, seconds, week);
+    return time.daysOfWeekMask();
   }
 }
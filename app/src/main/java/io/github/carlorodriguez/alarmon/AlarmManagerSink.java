@@ -0,0 +1,100 @@
+/****************************************************************************
+ * Copyright 2010 kraigs.android@gmail.com
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ****************************************************************************/
+
+package io.github.carlorodriguez.alarmon;
+
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Build;
+
+/**
+ * Registers wake ups with the android AlarmManager.  Each one is a
+ * broadcast to ReceiverAlarm.
+ */
+public final class AlarmManagerSink implements AlarmSink {
+  private AlarmManager alarmManager;
+  private Context context;
+
+  public AlarmManagerSink(Context context) {
+    alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+    this.context = context;
+  }
+
+  @Override
+  public void set(long alarmId, long fireMillis, boolean dispatchDue) {
+    PendingIntent scheduleIntent = alarmIntent(alarmId, fireMillis, dispatchDue);
+
+    // Schedule the alarm with the AlarmManager.
+    // Previous instances of this intent will be overwritten in
+    // the alarm manager.
+
+      if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+          Intent intent = new Intent(context, ActivityAlarmClock.class);
+
+          PendingIntent showIntent = PendingIntent.getActivity(context, 0,
+                  intent, PendingIntent.FLAG_UPDATE_CURRENT);
+
+          AlarmManager.AlarmClockInfo alarmClockInfo = new AlarmManager.
+                  AlarmClockInfo(fireMillis,
+                  showIntent
+                  );
+
+          alarmManager.setAlarmClock(alarmClockInfo, scheduleIntent);
+      } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+          alarmManager.setExact(AlarmManager.RTC_WAKEUP,
+                  fireMillis, scheduleIntent);
+      } else {
+          alarmManager.set(AlarmManager.RTC_WAKEUP,
+                  fireMillis, scheduleIntent);
+      }
+  }
+
+  @Override
+  public void cancel(long alarmId) {
+    // The extras are not part of intent equality, so this matches the
+    // intent whichever way it was registered.
+    PendingIntent scheduleIntent = PendingIntent.getBroadcast(context, 0,
+        receiverIntent(alarmId), 0);
+    alarmManager.cancel(scheduleIntent);
+    scheduleIntent.cancel();
+  }
+
+  private PendingIntent alarmIntent(long alarmId, long fireMillis,
+      boolean dispatchDue) {
+    Intent notifyIntent = receiverIntent(alarmId);
+    // The fire time lets the receiver log how late the alarm was delivered.
+    notifyIntent.putExtra(ReceiverAlarm.EXTRA_FIRE_MILLIS, fireMillis);
+    // The dispatch flag is an extra so that the armed intent is equal to
+    // (and replaces) any per-alarm intent registered for the same alarm.
+    if (dispatchDue) {
+      notifyIntent.putExtra(ReceiverAlarm.EXTRA_DISPATCH_DUE, true);
+    }
+    return PendingIntent.getBroadcast(context, 0, notifyIntent,
+        PendingIntent.FLAG_UPDATE_CURRENT);
+  }
+
+  private Intent receiverIntent(long alarmId) {
+    // Intents are considered equal if they have the same action, data, type,
+    // class, and categories.  In order to schedule multiple alarms, every
+    // pending intent must be different.  This means that we must encode
+    // the alarm id in the data section of the intent rather than in
+    // the extras bundle.
+    Intent notifyIntent = new Intent(context, ReceiverAlarm.class);
+    notifyIntent.setData(AlarmUtil.alarmIdToUri(alarmId));
+    return notifyIntent;
+  }
+}
@@ -0,0 +1,193 @@
+/****************************************************************************
+ * Copyright 2010 kraigs.android@gmail.com
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ****************************************************************************/
+
+package io.github.carlorodriguez.alarmon;
+
+import java.util.HashMap;
+
+import android.content.ContentProvider;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.UriMatcher;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.net.Uri;
+
+/**
+ * Read-only view of the alarms and settings tables for other apps, and the
+ * source of change notifications for observers in this one.  DbAccessor
+ * notifies alarmUri() or settingsUri() after every committed write to a
+ * row, and the table URI after bulk changes.
+ *
+ * Projections are limited to the table's own columns; selection, arguments
+ * and sort order are passed through to SQLite.  Writes go through
+ * AlarmClockService so that the schedule stays in step with the database.
+ */
+public final class AlarmProvider extends ContentProvider {
+  public static final String AUTHORITY = "io.github.carlorodriguez.alarmon.provider";
+  public static final Uri CONTENT_URI = Uri.parse("content://" + AUTHORITY);
+  public static final Uri ALARMS_URI =
+      Uri.withAppendedPath(CONTENT_URI, DbHelper.DB_TABLE_ALARMS);
+  public static final Uri SETTINGS_URI =
+      Uri.withAppendedPath(CONTENT_URI, DbHelper.DB_TABLE_SETTINGS);
+
+  private static final String TYPE_PREFIX = "vnd." + AUTHORITY + ".";
+
+  private static final int ALARMS = 1;
+  private static final int ALARM_ID = 2;
+  private static final int SETTINGS = 3;
+  private static final int SETTINGS_ID = 4;
+
+  private static final UriMatcher matcher = new UriMatcher(UriMatcher.NO_MATCH);
+  static {
+    matcher.addURI(AUTHORITY, DbHelper.DB_TABLE_ALARMS, ALARMS);
+    matcher.addURI(AUTHORITY, DbHelper.DB_TABLE_ALARMS + "/#", ALARM_ID);
+    matcher.addURI(AUTHORITY, DbHelper.DB_TABLE_SETTINGS, SETTINGS);
+    matcher.addURI(AUTHORITY, DbHelper.DB_TABLE_SETTINGS + "/#", SETTINGS_ID);
+  }
+
+  private static final HashMap<String, String> ALARM_PROJECTION =
+      projection(AlarmInfo.contentColumns());
+  private static final HashMap<String, String> SETTINGS_PROJECTION =
+      projection(AlarmSettings.contentColumns());
+
+  // Acquired on the first query.  Android never destroys a provider while
+  // its process runs, so this reference deliberately keeps the shared
+  // connection open until the process dies, and DbAccessors opened in the
+  // meantime reuse it.  Only shutdown(), which is for tests, releases it.
+  private SQLiteDatabase db;
+
+  public static Uri alarmUri(long alarmId) {
+    return ContentUris.withAppendedId(ALARMS_URI, alarmId);
+  }
+
+  /**
+   * @return The URI of an alarm's settings, or SETTINGS_URI for the
+   * defaults.
+   */
+  public static Uri settingsUri(long alarmId) {
+    return alarmId < 0
+        ? SETTINGS_URI : ContentUris.withAppendedId(SETTINGS_URI, alarmId);
+  }
+
+  /**
+   * @return The alarm id of a URI returned by alarmUri(), or
+   * AlarmClockServiceBinder.NO_ALARM_ID for any other URI.
+   */
+  public static long alarmId(Uri uri) {
+    return uri != null && matcher.match(uri) == ALARM_ID
+        ? ContentUris.parseId(uri) : AlarmClockServiceBinder.NO_ALARM_ID;
+  }
+
+  @Override
+  public boolean onCreate() {
+    return true;
+  }
+
+  @Override
+  public Cursor query(Uri uri, String[] projection, String selection,
+      String[] selectionArgs, String sortOrder) {
+    SQLiteQueryBuilder builder = new SQLiteQueryBuilder();
+    // Rejects selections that try to escape the WHERE clause.
+    builder.setStrict(true);
+    switch (matcher.match(uri)) {
+      case ALARMS:
+        builder.setTables(DbHelper.DB_TABLE_ALARMS);
+        builder.setProjectionMap(ALARM_PROJECTION);
+        if (sortOrder == null) {
+          sortOrder = DbHelper.ALARMS_COL_TIME + " ASC";
+        }
+        break;
+      case ALARM_ID:
+        builder.setTables(DbHelper.DB_TABLE_ALARMS);
+        builder.setProjectionMap(ALARM_PROJECTION);
+        builder.appendWhere(DbHelper.ALARMS_COL__ID + " = " + ContentUris.parseId(uri));
+        break;
+      case SETTINGS:
+        builder.setTables(DbHelper.DB_TABLE_SETTINGS);
+        builder.setProjectionMap(SETTINGS_PROJECTION);
+        break;
+      case SETTINGS_ID:
+        builder.setTables(DbHelper.DB_TABLE_SETTINGS);
+        builder.setProjectionMap(SETTINGS_PROJECTION);
+        builder.appendWhere(DbHelper.SETTINGS_COL_ID + " = " + ContentUris.parseId(uri));
+        break;
+      default:
+        throw new IllegalArgumentException("Unknown URI: " + uri);
+    }
+
+    Cursor cursor = builder.query(db(), projection, selection, selectionArgs,
+        null, null, sortOrder);
+    cursor.setNotificationUri(getContext().getContentResolver(), uri);
+    return cursor;
+  }
+
+  @Override
+  public String getType(Uri uri) {
+    switch (matcher.match(uri)) {
+      case ALARMS:
+        return "vnd.android.cursor.dir/" + TYPE_PREFIX + "alarm";
+      case ALARM_ID:
+        return "vnd.android.cursor.item/" + TYPE_PREFIX + "alarm";
+      case SETTINGS:
+        return "vnd.android.cursor.dir/" + TYPE_PREFIX + "settings";
+      case SETTINGS_ID:
+        return "vnd.android.cursor.item/" + TYPE_PREFIX + "settings";
+      default:
+        return null;
+    }
+  }
+
+  @Override
+  public Uri insert(Uri uri, ContentValues values) {
+    throw new UnsupportedOperationException("Alarms are read-only: " + uri);
+  }
+
+  @Override
+  public int update(Uri uri, ContentValues values, String selection,
+      String[] selectionArgs) {
+    throw new UnsupportedOperationException("Alarms are read-only: " + uri);
+  }
+
+  @Override
+  public int delete(Uri uri, String selection, String[] selectionArgs) {
+    throw new UnsupportedOperationException("Alarms are read-only: " + uri);
+  }
+
+  @Override
+  public synchronized void shutdown() {
+    if (db != null) {
+      db = null;
+      SharedDatabase.release();
+    }
+    super.shutdown();
+  }
+
+  private synchronized SQLiteDatabase db() {
+    if (db == null) {
+      db = SharedDatabase.acquire(getContext());
+    }
+    return db;
+  }
+
+  private static HashMap<String, String> projection(String[] columns) {
+    HashMap<String, String> map = new HashMap<>(columns.length);
+    for (String column : columns) {
+      map.put(column, column);
+    }
+    return map;
+  }
+}
@@ -0,0 +1,378 @@
+/****************************************************************************
+ * Copyright 2010 kraigs.android@gmail.com
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ****************************************************************************/
+
+package io.github.carlorodriguez.alarmon;
+
+import java.util.Arrays;
+
+/**
+ * An indexed binary min-heap of alarms keyed by their fire time in epoch
+ * millis.  Every entry is identified by its alarm id, so an alarm can be
+ * looked up, re-keyed or removed in O(log n) without scanning the heap.
+ * Several alarms may share the same fire time; ties are broken by alarm id
+ * so that iteration order is deterministic.  Ids and keys are kept in
+ * primitive arrays and the id to heap slot index is an open addressing
+ * table, so no Long objects are allocated by any operation.
+ *
+ * @param <V> Value attached to each alarm.
+ */
+public final class AlarmQueue<V> {
+  private static final int INITIAL_CAPACITY = 16;
+  private static final long EMPTY = Long.MIN_VALUE;
+
+  // Heap arrays, all indexed by heap slot.
+  private long[] ids;
+  private long[] keys;
+  private Object[] values;
+  private int size;
+
+  // Open addressing table mapping alarm id -> heap slot.
+  private long[] indexIds;
+  private int[] indexSlots;
+
+  public AlarmQueue() {
+    ids = new long[INITIAL_CAPACITY];
+    keys = new long[INITIAL_CAPACITY];
+    values = new Object[INITIAL_CAPACITY];
+    indexIds = new long[INITIAL_CAPACITY * 2];
+    indexSlots = new int[INITIAL_CAPACITY * 2];
+    Arrays.fill(indexIds, EMPTY);
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  public boolean contains(long alarmId) {
+    return slotOf(alarmId) >= 0;
+  }
+
+  /**
+   * Inserts an alarm, or moves it to its new fire time if it is already
+   * queued.
+   * @param alarmId Alarm id
+   * @param fireMillis Fire time in epoch millis
+   * @param value Value attached to the alarm
+   */
+  public void put(long alarmId, long fireMillis, V value) {
+    if (alarmId == EMPTY) {
+      throw new IllegalArgumentException("Reserved alarm id: " + alarmId);
+    }
+    int slot = slotOf(alarmId);
+    if (slot >= 0) {
+      long oldKey = keys[slot];
+      keys[slot] = fireMillis;
+      values[slot] = value;
+      if (fireMillis < oldKey) {
+        siftUp(slot);
+      } else {
+        siftDown(slot);
+      }
+      return;
+    }
+
+    if (size == ids.length) {
+      grow();
+    }
+    slot = size++;
+    ids[slot] = alarmId;
+    keys[slot] = fireMillis;
+    values[slot] = value;
+    indexPut(alarmId, slot);
+    siftUp(slot);
+  }
+
+  /**
+   * Removes an alarm from the queue.
+   * @param alarmId Alarm id
+   * @return true if the alarm was queued.
+   */
+  public boolean remove(long alarmId) {
+    int slot = slotOf(alarmId);
+    if (slot < 0) {
+      return false;
+    }
+    indexRemove(alarmId);
+    int last = --size;
+    if (slot != last) {
+      move(last, slot);
+      ids[last] = 0;
+      keys[last] = 0;
+      values[last] = null;
+      siftUp(slot);
+      siftDown(slot);
+    } else {
+      ids[last] = 0;
+      keys[last] = 0;
+      values[last] = null;
+    }
+    return true;
+  }
+
+  public void clear() {
+    Arrays.fill(values, 0, size, null);
+    Arrays.fill(indexIds, EMPTY);
+    size = 0;
+  }
+
+  /**
+   * @return The id of the alarm which fires first, or
+   * AlarmClockServiceBinder.NO_ALARM_ID if the queue is empty.
+   */
+  public long peekId() {
+    return size == 0 ? AlarmClockServiceBinder.NO_ALARM_ID : ids[0];
+  }
+
+  /**
+   * @return The fire time of the first alarm, or Long.MAX_VALUE if the queue
+   * is empty.
+   */
+  public long peekKey() {
+    return size == 0 ? Long.MAX_VALUE : keys[0];
+  }
+
+  public V peekValue() {
+    return size == 0 ? null : valueAt(0);
+  }
+
+  /**
+   * @param alarmId Alarm id
+   * @return The value attached to this alarm, or null if it isn't queued.
+   */
+  public V get(long alarmId) {
+    int slot = slotOf(alarmId);
+    return slot < 0 ? null : valueAt(slot);
+  }
+
+  /**
+   * @param alarmId Alarm id
+   * @return The fire time of this alarm, or Long.MAX_VALUE if it isn't
+   * queued.
+   */
+  public long keyOf(long alarmId) {
+    int slot = slotOf(alarmId);
+    return slot < 0 ? Long.MAX_VALUE : keys[slot];
+  }
+
+  /**
+   * @return The ids of all queued alarms, in heap (not fire time) order.
+   */
+  public long[] ids() {
+    return Arrays.copyOf(ids, size);
+  }
+
+  /**
+   * @return The ids of all queued alarms, ordered by fire time.
+   */
+  public long[] sortedIds() {
+    long[] sortedIds = Arrays.copyOf(ids, size);
+    long[] sortedKeys = Arrays.copyOf(keys, size);
+    // Insertion sort into place is fine for the handful of entries that are
+    // usually queued; fall back to a merge sort for larger queues.
+    if (size < 32) {
+      for (int i = 1; i < size; ++i) {
+        long id = sortedIds[i];
+        long key = sortedKeys[i];
+        int j = i - 1;
+        while (j >= 0 && less(key, id, sortedKeys[j], sortedIds[j])) {
+          sortedIds[j + 1] = sortedIds[j];
+          sortedKeys[j + 1] = sortedKeys[j];
+          --j;
+        }
+        sortedIds[j + 1] = id;
+        sortedKeys[j + 1] = key;
+      }
+      return sortedIds;
+    }
+    mergeSort(sortedIds, sortedKeys, new long[size], new long[size], 0, size);
+    return sortedIds;
+  }
+
+  @SuppressWarnings("unchecked")
+  private V valueAt(int slot) {
+    return (V) values[slot];
+  }
+
+  private static boolean less(long keyA, long idA, long keyB, long idB) {
+    return keyA < keyB || (keyA == keyB && idA < idB);
+  }
+
+  private boolean less(int a, int b) {
+    return less(keys[a], ids[a], keys[b], ids[b]);
+  }
+
+  private void siftUp(int slot) {
+    while (slot > 0) {
+      int parent = (slot - 1) >>> 1;
+      if (!less(slot, parent)) {
+        break;
+      }
+      swap(slot, parent);
+      slot = parent;
+    }
+  }
+
+  private void siftDown(int slot) {
+    while (true) {
+      int left = 2 * slot + 1;
+      if (left >= size) {
+        break;
+      }
+      int smallest = left;
+      int right = left + 1;
+      if (right < size && less(right, left)) {
+        smallest = right;
+      }
+      if (!less(smallest, slot)) {
+        break;
+      }
+      swap(slot, smallest);
+      slot = smallest;
+    }
+  }
+
+  private void swap(int a, int b) {
+    long id = ids[a];
+    long key = keys[a];
+    Object value = values[a];
+    ids[a] = ids[b];
+    keys[a] = keys[b];
+    values[a] = values[b];
+    ids[b] = id;
+    keys[b] = key;
+    values[b] = value;
+    indexPut(ids[a], a);
+    indexPut(ids[b], b);
+  }
+
+  private void move(int from, int to) {
+    ids[to] = ids[from];
+    keys[to] = keys[from];
+    values[to] = values[from];
+    indexPut(ids[to], to);
+  }
+
+  private void grow() {
+    int capacity = ids.length * 2;
+    ids = Arrays.copyOf(ids, capacity);
+    keys = Arrays.copyOf(keys, capacity);
+    values = Arrays.copyOf(values, capacity);
+  }
+
+  private static void mergeSort(long[] ids, long[] keys, long[] idBuf,
+      long[] keyBuf, int from, int to) {
+    if (to - from < 2) {
+      return;
+    }
+    int mid = (from + to) >>> 1;
+    mergeSort(ids, keys, idBuf, keyBuf, from, mid);
+    mergeSort(ids, keys, idBuf, keyBuf, mid, to);
+    int i = from;
+    int j = mid;
+    for (int k = from; k < to; ++k) {
+      if (j >= to || (i < mid && !less(keys[j], ids[j], keys[i], ids[i]))) {
+        idBuf[k] = ids[i];
+        keyBuf[k] = keys[i++];
+      } else {
+        idBuf[k] = ids[j];
+        keyBuf[k] = keys[j++];
+      }
+    }
+    System.arraycopy(idBuf, from, ids, from, to - from);
+    System.arraycopy(keyBuf, from, keys, from, to - from);
+  }
+
+  // Index table.  Linear probing with backward shift deletion, kept at most
+  // half full.
+
+  private static int hash(long alarmId) {
+    long h = alarmId * 0x9E3779B97F4A7C15L;
+    return (int) (h ^ (h >>> 32));
+  }
+
+  private int slotOf(long alarmId) {
+    int mask = indexIds.length - 1;
+    for (int i = hash(alarmId) & mask; ; i = (i + 1) & mask) {
+      long id = indexIds[i];
+      if (id == EMPTY) {
+        return -1;
+      }
+      if (id == alarmId) {
+        return indexSlots[i];
+      }
+    }
+  }
+
+  private void indexPut(long alarmId, int slot) {
+    if ((size + 1) * 2 > indexIds.length) {
+      rehash(indexIds.length * 2);
+    }
+    int mask = indexIds.length - 1;
+    for (int i = hash(alarmId) & mask; ; i = (i + 1) & mask) {
+      long id = indexIds[i];
+      if (id == EMPTY || id == alarmId) {
+        indexIds[i] = alarmId;
+        indexSlots[i] = slot;
+        return;
+      }
+    }
+  }
+
+  private void indexRemove(long alarmId) {
+    int mask = indexIds.length - 1;
+    int i = hash(alarmId) & mask;
+    while (indexIds[i] != alarmId) {
+      if (indexIds[i] == EMPTY) {
+        return;
+      }
+      i = (i + 1) & mask;
+    }
+    // Shift following entries of the probe chain back into the hole.
+    int hole = i;
+    for (int j = (hole + 1) & mask; indexIds[j] != EMPTY; j = (j + 1) & mask) {
+      int home = hash(indexIds[j]) & mask;
+      if (((j - home) & mask) >= ((j - hole) & mask)) {
+        indexIds[hole] = indexIds[j];
+        indexSlots[hole] = indexSlots[j];
+        hole = j;
+      }
+    }
+    indexIds[hole] = EMPTY;
+  }
+
+  private void rehash(int capacity) {
+    long[] oldIds = indexIds;
+    int[] oldSlots = indexSlots;
+    indexIds = new long[capacity];
+    indexSlots = new int[capacity];
+    Arrays.fill(indexIds, EMPTY);
+    int mask = capacity - 1;
+    for (int k = 0; k < oldIds.length; ++k) {
+      if (oldIds[k] == EMPTY) {
+        continue;
+      }
+      int i = hash(oldIds[k]) & mask;
+      while (indexIds[i] != EMPTY) {
+        i = (i + 1) & mask;
+      }
+      indexIds[i] = oldIds[k];
+      indexSlots[i] = oldSlots[k];
+    }
+  }
+}
@@ -0,0 +1,358 @@
+/****************************************************************************
+ * Copyright 2010 kraigs.android@gmail.com
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ****************************************************************************/
+
+package io.github.carlorodriguez.alarmon;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import android.support.v4.util.LongSparseArray;
+
+/**
+ * Keeps AlarmInfo and AlarmSettings rows in memory in front of a
+ * DbAccessor.  Reads are answered from the cache when possible.  Alarm and
+ * settings writes update the cache and are queued on AlarmWriteQueue, so
+ * they return without waiting for the database, and every other write first
+ * waits for the queue to drain.  A read that misses the cache takes rows
+ * still in the queue from there and the rest from the database, so it
+ * doesn't wait for the writer either.
+ * The cache is shared by every repository in the process, so a write
+ * through one is seen by all of them.
+ *
+ * Cached objects are never handed out.  Callers get a copy, and the time of
+ * a cached alarm is recomputed on every read so that it is never stale.
+ */
+public final class AlarmRepository {
+  private static final Object lock = new Object();
+  private static final LongSparseArray<AlarmInfo> infos = new LongSparseArray<>();
+  // The settings each alarm rings with, i.e. the default settings for
+  // alarms that have no row of their own.
+  private static final LongSparseArray<AlarmSettings> settings =
+      new LongSparseArray<>();
+  // The default settings, or null until read.  The only copy of them in
+  // the process.
+  private static AlarmSettings defaults;
+  private static long hits;
+  private static long misses;
+  // Incremented by every write, so that a read which raced with a write
+  // doesn't cache what it read.
+  private static int generation;
+
+  private DbAccessor db;
+
+  public AlarmRepository(DbAccessor db) {
+    this.db = db;
+  }
+
+  public DbAccessor db() {
+    return db;
+  }
+
+  public AlarmInfo readAlarmInfo(long alarmId) {
+    int readGeneration;
+    synchronized (lock) {
+      AlarmInfo cached = infos.get(alarmId);
+      if (cached != null) {
+        ++hits;
+        return fresh(cached);
+      }
+      ++misses;
+      readGeneration = generation;
+    }
+    AlarmInfo info = AlarmWriteQueue.pendingAlarmInfo(alarmId);
+    if (info != null) {
+      info = fresh(info);
+    } else {
+      info = db.readAlarmInfo(alarmId);
+    }
+    if (info != null) {
+      synchronized (lock) {
+        if (readGeneration == generation) {
+          infos.put(alarmId, new AlarmInfo(info));
+        }
+      }
+    }
+    return info;
+  }
+
+  /**
+   * Reads several alarms with one query and caches them.
+   */
+  public List<AlarmInfo> readAlarmInfo(long[] alarmIds) {
+    int readGeneration;
+    synchronized (lock) {
+      misses += alarmIds.length;
+      readGeneration = generation;
+    }
+    List<AlarmInfo> read = new ArrayList<>(alarmIds.length);
+    long[] unqueued = new long[alarmIds.length];
+    int unqueuedCount = 0;
+    for (long alarmId : alarmIds) {
+      AlarmInfo info = AlarmWriteQueue.pendingAlarmInfo(alarmId);
+      if (info != null) {
+        read.add(fresh(info));
+      } else {
+        unqueued[unqueuedCount++] = alarmId;
+      }
+    }
+    if (unqueuedCount > 0) {
+      long[] ids = new long[unqueuedCount];
+      System.arraycopy(unqueued, 0, ids, 0, unqueuedCount);
+      read.addAll(db.readAlarmInfo(ids));
+    }
+    synchronized (lock) {
+      if (readGeneration == generation) {
+        for (AlarmInfo info : read) {
+          infos.put(info.getAlarmId(), new AlarmInfo(info));
+        }
+      }
+    }
+    return read;
+  }
+
+  public AlarmSettings readAlarmSettings(long alarmId) {
+    if (alarmId == AlarmSettings.DEFAULT_SETTINGS_ID) {
+      return readDefaults();
+    }
+    int readGeneration;
+    synchronized (lock) {
+      AlarmSettings cached = settings.get(alarmId);
+      if (cached != null) {
+        ++hits;
+        return new AlarmSettings(cached);
+      }
+      ++misses;
+      readGeneration = generation;
+    }
+    AlarmSettings read = AlarmWriteQueue.pendingAlarmSettings(alarmId);
+    if (read == null) {
+      AlarmDetails details = db.readAlarmDetails(alarmId);
+      read = details != null && details.getSettings() != null
+          ? details.getSettings() : readDefaults();
+    }
+    synchronized (lock) {
+      if (readGeneration == generation) {
+        settings.put(alarmId, new AlarmSettings(read));
+      }
+    }
+    return read;
+  }
+
+  /**
+   * Reads an alarm together with the settings it rings with.  Answered from
+   * memory if both are cached, otherwise with a single joined query.
+   * @return The alarm, or null if it doesn't exist.
+   */
+  public AlarmDetails readAlarmDetails(long alarmId) {
+    int readGeneration;
+    synchronized (lock) {
+      AlarmInfo cachedInfo = infos.get(alarmId);
+      AlarmSettings cachedSettings = settings.get(alarmId);
+      if (cachedInfo != null && cachedSettings != null) {
+        ++hits;
+        return new AlarmDetails(fresh(cachedInfo),
+            new AlarmSettings(cachedSettings));
+      }
+      ++misses;
+      readGeneration = generation;
+    }
+    AlarmInfo queuedInfo = AlarmWriteQueue.pendingAlarmInfo(alarmId);
+    AlarmSettings queuedSettings =
+        AlarmWriteQueue.pendingAlarmSettings(alarmId);
+    AlarmDetails details = db.readAlarmDetails(alarmId);
+    if (details != null) {
+      AlarmSettings alarmSettings = queuedSettings != null ? queuedSettings
+          : details.getSettings() != null ? details.getSettings()
+          : readDefaults();
+      details = new AlarmDetails(
+          queuedInfo != null ? fresh(queuedInfo) : details.getInfo(),
+          alarmSettings);
+    }
+    if (details != null) {
+      synchronized (lock) {
+        if (readGeneration == generation) {
+          infos.put(alarmId, new AlarmInfo(details.getInfo()));
+          settings.put(alarmId, new AlarmSettings(details.getSettings()));
+        }
+      }
+    }
+    return details;
+  }
+
+  public long newAlarm(AlarmTime time, boolean enabled, String name) {
+    return db.newAlarm(time, enabled, name);
+  }
+
+  /**
+   * Queues a write of an existing alarm.
+   */
+  public void writeAlarmInfo(long alarmId, AlarmInfo info) {
+    synchronized (lock) {
+      ++generation;
+      infos.put(alarmId, new AlarmInfo(info));
+      AlarmWriteQueue.writeAlarmInfo(db.context(), alarmId, info);
+    }
+  }
+
+  /**
+   * Queues a write of an alarm's settings, or of the defaults.
+   */
+  public void writeAlarmSettings(long alarmId, AlarmSettings alarmSettings) {
+    synchronized (lock) {
+      ++generation;
+      if (alarmId == AlarmSettings.DEFAULT_SETTINGS_ID) {
+        // Every alarm without settings of its own falls back to these.
+        settings.clear();
+        defaults = new AlarmSettings(alarmSettings);
+      } else {
+        settings.put(alarmId, new AlarmSettings(alarmSettings));
+      }
+      AlarmWriteQueue.writeAlarmSettings(db.context(), alarmId, alarmSettings);
+    }
+  }
+
+  /**
+   * Queues the settings of several alarms.  Queued writes are committed in
+   * as few transactions as the writer can manage.
+   */
+  public void writeAlarmSettings(long[] alarmIds, AlarmSettings[] alarmSettings) {
+    synchronized (lock) {
+      ++generation;
+      for (int i = 0; i < alarmIds.length; ++i) {
+        if (alarmIds[i] == AlarmSettings.DEFAULT_SETTINGS_ID) {
+          settings.clear();
+          defaults = new AlarmSettings(alarmSettings[i]);
+        } else {
+          settings.put(alarmIds[i], new AlarmSettings(alarmSettings[i]));
+        }
+      }
+      AlarmWriteQueue.writeAlarmSettings(db.context(), alarmIds, alarmSettings);
+    }
+  }
+
+  public boolean enableAlarm(long alarmId, boolean enabled) {
+    AlarmWriteQueue.flush();
+    boolean success = db.enableAlarm(alarmId, enabled);
+    synchronized (lock) {
+      ++generation;
+      setEnabled(alarmId, enabled);
+    }
+    return success;
+  }
+
+  public int enableAlarms(long[] alarmIds, boolean enabled) {
+    AlarmWriteQueue.flush();
+    int count = db.enableAlarms(alarmIds, enabled);
+    synchronized (lock) {
+      ++generation;
+      for (long alarmId : alarmIds) {
+        setEnabled(alarmId, enabled);
+      }
+    }
+    return count;
+  }
+
+  public boolean deleteAlarm(long alarmId) {
+    AlarmWriteQueue.flush();
+    boolean success = db.deleteAlarm(alarmId);
+    synchronized (lock) {
+      ++generation;
+      infos.remove(alarmId);
+      settings.remove(alarmId);
+    }
+    return success;
+  }
+
+  public int deleteAlarms(long[] alarmIds) {
+    AlarmWriteQueue.flush();
+    int count = db.deleteAlarms(alarmIds);
+    synchronized (lock) {
+      ++generation;
+      for (long alarmId : alarmIds) {
+        infos.remove(alarmId);
+        settings.remove(alarmId);
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Drops everything cached, after the database was changed other than
+   * through a repository.
+   */
+  public void invalidate() {
+    synchronized (lock) {
+      ++generation;
+      infos.clear();
+      settings.clear();
+      defaults = null;
+    }
+  }
+
+  /**
+   * @return The number of reads answered from memory.
+   */
+  public static long hits() {
+    synchronized (lock) {
+      return hits;
+    }
+  }
+
+  /**
+   * @return The number of reads which went to the database.
+   */
+  public static long misses() {
+    synchronized (lock) {
+      return misses;
+    }
+  }
+
+  // The default settings, from memory, the write queue or the database.
+  private AlarmSettings readDefaults() {
+    int readGeneration;
+    synchronized (lock) {
+      if (defaults != null) {
+        return new AlarmSettings(defaults);
+      }
+      readGeneration = generation;
+    }
+    AlarmSettings read = AlarmWriteQueue.pendingAlarmSettings(
+        AlarmSettings.DEFAULT_SETTINGS_ID);
+    if (read == null) {
+      read = db.readAlarmSettings(AlarmSettings.DEFAULT_SETTINGS_ID);
+    }
+    synchronized (lock) {
+      if (readGeneration == generation) {
+        defaults = new AlarmSettings(read);
+      }
+    }
+    return read;
+  }
+
+  private static void setEnabled(long alarmId, boolean enabled) {
+    AlarmInfo cached = infos.get(alarmId);
+    if (cached != null) {
+      cached.setEnabled(enabled);
+    }
+  }
+
+  // A copy of a cached alarm with its next occurrence computed from now.
+  private static AlarmInfo fresh(AlarmInfo cached) {
+    AlarmInfo info = new AlarmInfo(cached);
+    AlarmTime time = cached.getTime();
+    info.setTime(new AlarmTime(time.secondsOfDay(), time.daysOfWeekMask()));
+    return info;
+  }
+}
@@ -27,6 +27,46 @@ import android.net.Uri;
 public final class AlarmSettings {
     static public final long DEFAULT_SETTINGS_ID = -1;
 
+    /**
+     * Reads settings from the rows of a cursor, looking its columns up
+     * once.
+     */
+    public static final class RowMapper {
+        private final int toneUrlColumn;
+        private final int toneNameColumn;
+        private final int snoozeColumn;
+        private final int vibrateColumn;
+        private final int volumeStartingColumn;
+        private final int volumeEndingColumn;
+        private final int volumeTimeColumn;
+        private final int volumeColumn;
+        private final int lengthSignalColumn;
+        private final int pauseSignalsColumn;
+        private final int numberSignalsColumn;
+
+        public RowMapper(Cursor cursor) {
+            toneUrlColumn = cursor.getColumnIndexOrThrow(DbHelper.SETTINGS_COL_TONE_URL);
+            toneNameColumn = cursor.getColumnIndexOrThrow(DbHelper.SETTINGS_COL_TONE_NAME);
+            snoozeColumn = cursor.getColumnIndexOrThrow(DbHelper.SETTINGS_COL_SNOOZE);
+            vibrateColumn = cursor.getColumnIndexOrThrow(DbHelper.SETTINGS_COL_VIBRATE);
+            volumeStartingColumn = cursor.getColumnIndexOrThrow(DbHelper.SETTINGS_COL_VOLUME_STARTING);
+            volumeEndingColumn = cursor.getColumnIndexOrThrow(DbHelper.SETTINGS_COL_VOLUME_ENDING);
+            volumeTimeColumn = cursor.getColumnIndexOrThrow(DbHelper.SETTINGS_COL_VOLUME_TIME);
+            volumeColumn = cursor.getColumnIndexOrThrow(DbHelper.SETTINGS_COL_VOLUME);
+            lengthSignalColumn = cursor.getColumnIndexOrThrow(DbHelper.SETTINGS_COL_LENGTH_SIGNAL);
+            pauseSignalsColumn = cursor.getColumnIndexOrThrow(DbHelper.SETTINGS_COL_PAUSE_SIGNALS);
+            numberSignalsColumn = cursor.getColumnIndexOrThrow(DbHelper.SETTINGS_COL_NUMBER_SIGNALS);
+        }
+
+        /**
+         * @param cursor The cursor this mapper was created for, positioned
+         *               on a row.
+         */
+        public AlarmSettings map(Cursor cursor) {
+            return new AlarmSettings(this, cursor);
+        }
+    }
+
     private Uri tone;
     private String toneName;
     private int snoozeMinutes;
@@ -101,19 +141,30 @@ public final class AlarmSettings {
         numberOfSignals = rhs.numberOfSignals;
     }
 
+    /**
+     * Reads the settings at the first row of a cursor.
+     */
     public AlarmSettings(Cursor cursor) {
+        this(new RowMapper(cursor), first(cursor));
+    }
+
+    private AlarmSettings(RowMapper mapper, Cursor cursor) {
+        tone = Uri.parse(cursor.getString(mapper.toneUrlColumn));
+        toneName = cursor.getString(mapper.toneNameColumn);
+        snoozeMinutes = cursor.getInt(mapper.snoozeColumn);
+        vibrate = cursor.getInt(mapper.vibrateColumn) == 1;
+        volumeStartPercent = cursor.getInt(mapper.volumeStartingColumn);
+        volumeEndPercent = cursor.getInt(mapper.volumeEndingColumn);
+        volumeChangeTimeSec = cursor.getInt(mapper.volumeTimeColumn);
+        volumePercent = cursor.getInt(mapper.volumeColumn);
+        lengthSignal = cursor.getInt(mapper.lengthSignalColumn);
+        pauseBeetweenSignals = cursor.getInt(mapper.pauseSignalsColumn);
+        numberOfSignals = cursor.getInt(mapper.numberSignalsColumn);
+    }
+
+    private static Cursor first(Cursor cursor) {
         cursor.moveToFirst();
-        tone = Uri.parse(cursor.getString(cursor.getColumnIndex(DbHelper.SETTINGS_COL_TONE_URL)));
-        toneName = cursor.getString(cursor.getColumnIndex(DbHelper.SETTINGS_COL_TONE_NAME));
-        snoozeMinutes = cursor.getInt(cursor.getColumnIndex(DbHelper.SETTINGS_COL_SNOOZE));
-        vibrate = cursor.getInt(cursor.getColumnIndex(DbHelper.SETTINGS_COL_VIBRATE)) == 1;
-        volumeStartPercent = cursor.getInt(cursor.getColumnIndex(DbHelper.SETTINGS_COL_VOLUME_STARTING));
-        volumeEndPercent = cursor.getInt(cursor.getColumnIndex(DbHelper.SETTINGS_COL_VOLUME_ENDING));
-        volumeChangeTimeSec = cursor.getInt(cursor.getColumnIndex(DbHelper.SETTINGS_COL_VOLUME_TIME));
-        volumePercent = cursor.getInt(cursor.getColumnIndex(DbHelper.SETTINGS_COL_VOLUME));
-        lengthSignal = cursor.getInt(cursor.getColumnIndex(DbHelper.SETTINGS_COL_LENGTH_SIGNAL));
-        pauseBeetweenSignals = cursor.getInt(cursor.getColumnIndex(DbHelper.SETTINGS_COL_PAUSE_SIGNALS));
-        numberOfSignals = cursor.getInt(cursor.getColumnIndex(DbHelper.SETTINGS_COL_NUMBER_SIGNALS));
+        return cursor;
     }
 
     @Override
@@ -0,0 +1,40 @@
+/****************************************************************************
+ * Copyright 2010 kraigs.android@gmail.com
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ****************************************************************************/
+
+package io.github.carlorodriguez.alarmon;
+
+/**
+ * Receives the wake ups requested by PendingAlarmList.  On a device this is
+ * AlarmManagerSink; a test can supply its own sink to record the wake ups
+ * and fire them against a TimeSource it controls.
+ */
+public interface AlarmSink {
+  /**
+   * Registers a wake up for an alarm, replacing any earlier one for the
+   * same alarm.
+   * @param alarmId Alarm id
+   * @param fireMillis Wake up time in epoch millis.
+   * @param dispatchDue True if the wake up should dispatch every due alarm
+   *                    (see PendingAlarmList.Registration.NEXT_DUE) rather
+   *                    than only this one.
+   */
+  void set(long alarmId, long fireMillis, boolean dispatchDue);
+
+  /**
+   * Cancels the wake up registered for an alarm, if any.
+   * @param alarmId Alarm id
+   */
+  void cancel(long alarmId);
+}
@@ -16,8 +16,8 @@
 package io.github.carlorodriguez.alarmon;
 
 import java.text.SimpleDateFormat;
-import java.util.Arrays;
 import java.util.Calendar;
+import java.util.Date;
 import java.util.Locale;
 
 import android.content.Context;
@@ -33,18 +33,28 @@ import android.text.format.DateFormat;
  * per time it is enabled.  The class is Parcelable so that it can be
  * returned as an object from the AlarmClockService and is Comparable so that
  * an ordered list can be created in PendingAlarmList.
+ *
+ * Instances are immutable.  The next occurrence is computed once, at
+ * construction, and kept as an epoch millis instant next to the configured
+ * seconds past midnight and day of week mask (see Week.mask()).
  */
 public final class AlarmTime implements Parcelable, Comparable<AlarmTime> {
+  private static final int SECONDS_PER_DAY = 24 * 60 * 60;
+
+  private final long fireMillis;
+  private final int secondsOfDay;
+  private final int daysOfWeek;
+  // Compatibility view of fireMillis, created on first use.
   private Calendar calendar;
-  private Week daysOfWeek;
 
   /**
    * Copy constructor.
    * @param rhs rhs
    */
   public AlarmTime(AlarmTime rhs) {
-    calendar = (Calendar) rhs.calendar.clone();
-    daysOfWeek = new Week(rhs.daysOfWeek);
+    fireMillis = rhs.fireMillis;
+    secondsOfDay = rhs.secondsOfDay;
+    daysOfWeek = rhs.daysOfWeek;
   }
 
   /**
@@ -67,51 +77,43 @@ public final class AlarmTime implements Parcelable, Comparable<AlarmTime> {
    * @param daysOfWeek Days of week
    */
   public AlarmTime(int hourOfDay, int minute, int second, Week daysOfWeek) {
-    this.calendar = Calendar.getInstance();
-    calendar.set(Calendar.HOUR_OF_DAY, hourOfDay);
-    calendar.set(Calendar.MINUTE, minute);
-    calendar.set(Calendar.SECOND, second);
-    this.daysOfWeek = daysOfWeek;
-
-    findNextOccurrence();
+    this(hourOfDay * 3600 + minute * 60 + second, daysOfWeek.mask());
   }
 
-    public void setDaysOfWeek(Week week) {
-        daysOfWeek = week;
-    }
-
-  private void findNextOccurrence() {
-    Calendar now = Calendar.getInstance();
-
-    // If this hour/minute/second has already occurred today, move to tomorrow.
-    if (calendar.before(now)) {
-      calendar.add(Calendar.DATE, 1);
-    }
-
-    if (calendar.before(now)) {
-      throw new IllegalStateException("Inconsistent calendar.");
-    }
-
-    // If there are no repeats requested, there is nothing left to do.
-    if (daysOfWeek.equals(Week.NO_REPEATS)) {
-      return;
-    }
-
-    // Keep incrementing days until we hit a suitable day of the week.
-    for (int i = 0; i < Week.Day.values().length; ++i) {
-      Week.Day alarmDay = Week.calendarToDay(calendar.get(Calendar.DAY_OF_WEEK));
-      if (daysOfWeek.hasDay(alarmDay)) {
-        return;
-      }
-      calendar.add(Calendar.DATE, 1);
-    }
+  /**
+   * Construct an AlarmTime for the next occurrence of this time of day
+   * which occurs on the specified days of the week.
+   * @param secondsOfDay Seconds past midnight
+   * @param daysOfWeek Day of week mask, see Week.mask()
+   */
+  public AlarmTime(int secondsOfDay, int daysOfWeek) {
+    this(secondsOfDay, daysOfWeek, new OccurrenceCalculator());
+  }
 
-    throw new IllegalStateException("Didn't find a suitable date for alarm.");
+  /**
+   * Construct an AlarmTime for the next occurrence of this time of day,
+   * relative to the time and time zone captured by calculator.  Share one
+   * calculator when building many alarm times at once.
+   * @param secondsOfDay Seconds past midnight
+   * @param daysOfWeek Day of week mask, see Week.mask()
+   * @param calculator Occurrence calculator
+   */
+  public AlarmTime(int secondsOfDay, int daysOfWeek,
+      OccurrenceCalculator calculator) {
+    // Out of range values wrap around, as they did with a lenient Calendar.
+    this.secondsOfDay = ((secondsOfDay % SECONDS_PER_DAY) + SECONDS_PER_DAY)
+        % SECONDS_PER_DAY;
+    this.daysOfWeek = daysOfWeek & Week.ALL_DAYS_MASK;
+    this.fireMillis = calculator.nextOccurrence(this.secondsOfDay,
+        this.daysOfWeek);
   }
 
   @Override
   public int compareTo(@NonNull AlarmTime another) {
-    return calendar.compareTo(another.calendar);
+    if (fireMillis == another.fireMillis) {
+      return 0;
+    }
+    return fireMillis < another.fireMillis ? -1 : 1;
   }
 
   @Override
@@ -121,17 +123,18 @@ public final class AlarmTime implements Parcelable, Comparable<AlarmTime> {
     }
     AlarmTime rhs = (AlarmTime) o;
 
-      return calendar.get(Calendar.HOUR_OF_DAY) == rhs.calendar().get(Calendar.HOUR_OF_DAY)
-              && calendar.get(Calendar.MINUTE) == rhs.calendar().get(Calendar.MINUTE)
-              && calendar.get(Calendar.SECOND) == rhs.calendar().get(Calendar.SECOND)
-              && Arrays.equals(getDaysOfWeek().bitmask(),
-              rhs.getDaysOfWeek().bitmask());
+    return secondsOfDay == rhs.secondsOfDay && daysOfWeek == rhs.daysOfWeek;
+  }
+
+  @Override
+  public int hashCode() {
+    return secondsOfDay * 31 + daysOfWeek;
   }
 
   public String toString() {
     SimpleDateFormat formatter = new SimpleDateFormat("HH:mm.ss MMMM dd yyyy",
             Locale.US);
-    return formatter.format(calendar.getTimeInMillis());
+    return formatter.format(new Date(fireMillis));
   }
 
   public String localizedString(Context context) {
@@ -148,28 +151,71 @@ public final class AlarmTime implements Parcelable, Comparable<AlarmTime> {
     }
 
     SimpleDateFormat formatter = new SimpleDateFormat(format, Locale.US);
-    return formatter.format(calendar.getTime());
+    return formatter.format(new Date(fireMillis));
+  }
+
+  /**
+   * @return The next occurrence of this alarm in epoch millis.
+   */
+  public long fireMillis() {
+    return fireMillis;
+  }
+
+  /**
+   * @return The configured time of day, in seconds past midnight.
+   */
+  public int secondsOfDay() {
+    return secondsOfDay;
+  }
+
+  public int hourOfDay() {
+    return secondsOfDay / 3600;
   }
 
+  public int minute() {
+    return secondsOfDay / 60 % 60;
+  }
+
+  public int second() {
+    return secondsOfDay % 60;
+  }
+
+  /**
+   * A Calendar view of fireMillis() for older callers.  It is created on
+   * first use and shared, so it must not be modified.
+   * @return Calendar set to the next occurrence of this alarm.
+   */
   public Calendar calendar() {
+    if (calendar == null) {
+      Calendar c = Calendar.getInstance(TimeSource.get().timeZone());
+      c.setTimeInMillis(fireMillis);
+      calendar = c;
+    }
     return calendar;
   }
 
+  /**
+   * @return A copy of the days on which this alarm repeats.
+   */
   public Week getDaysOfWeek() {
+    return new Week(daysOfWeek);
+  }
+
+  public int daysOfWeekMask() {
     return daysOfWeek;
   }
 
   public boolean repeats() {
-    return !daysOfWeek.equals(Week.NO_REPEATS);
+    return daysOfWeek != 0;
   }
 
   public String timeUntilString(Context c) {
-    Calendar now = Calendar.getInstance();
-    if (calendar.before(now)) {
+    long now = TimeSource.get().currentTimeMillis();
+    if (fireMillis < now) {
       return c.getString(R.string.alarm_has_occurred);
     }
-    long now_min = now.getTimeInMillis() / 1000 / 60;
-    long then_min = calendar.getTimeInMillis() / 1000 / 60;
+    long now_min = now / 1000 / 60;
+    long then_min = fireMillis / 1000 / 60;
     long difference_minutes = then_min - now_min;
     long days = difference_minutes / (60 * 24);
     long hours = difference_minutes % (60 * 24);
@@ -203,7 +249,9 @@ public final class AlarmTime implements Parcelable, Comparable<AlarmTime> {
    * @return AlarmTime
    */
   public static AlarmTime snoozeInMillisUTC(int minutes) {
-    Calendar snooze = Calendar.getInstance();
+    TimeSource source = TimeSource.get();
+    Calendar snooze = Calendar.getInstance(source.timeZone());
+    snooze.setTimeInMillis(source.currentTimeMillis());
     snooze.set(Calendar.SECOND, 0);
     snooze.add(Calendar.MINUTE, minutes);
     return new AlarmTime(
@@ -212,15 +260,41 @@ public final class AlarmTime implements Parcelable, Comparable<AlarmTime> {
         snooze.get(Calendar.SECOND));
   }
 
+  /**
+   * Gives a snooze time the schedule of the alarm being snoozed.  A
+   * repeating alarm keeps its time of day and days of week, so that it
+   * carries on on its days once the snooze has fired.
+   * @param schedule The alarm's own time, or null.
+   * @return This fire time with the alarm's schedule.
+   */
+  public AlarmTime withScheduleOf(AlarmTime schedule) {
+    if (schedule == null || !schedule.repeats()) {
+      return this;
+    }
+    return new AlarmTime(fireMillis, schedule.secondsOfDay,
+        schedule.daysOfWeek);
+  }
+
+  /**
+   * Restores an alarm time exactly as it was saved, including its fire
+   * time.
+   */
+  AlarmTime(long fireMillis, int secondsOfDay, int daysOfWeek) {
+    this.fireMillis = fireMillis;
+    this.secondsOfDay = secondsOfDay;
+    this.daysOfWeek = daysOfWeek & Week.ALL_DAYS_MASK;
+  }
+
+  // Parcel format: fire time, seconds past midnight, day of week mask.
   private AlarmTime(Parcel source) {
-    this.calendar = (Calendar) source.readSerializable();
-    this.daysOfWeek = source.readParcelable(null);
+    this(source.readLong(), source.readInt(), source.readInt());
   }
 
   @Override
   public void writeToParcel(Parcel dest, int flags) {
-    dest.writeSerializable(calendar);
-    dest.writeParcelable(daysOfWeek, 0);
+    dest.writeLong(fireMillis);
+    dest.writeInt(secondsOfDay);
+    dest.writeInt(daysOfWeek);
   }
 
   public static final Parcelable.Creator<AlarmTime> CREATOR =
@@ -0,0 +1,313 @@
+/****************************************************************************
+ * Copyright 2010 kraigs.android@gmail.com
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ****************************************************************************/
+
+package io.github.carlorodriguez.alarmon;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.JsonWriter;
+
+/**
+ * Streams alarms and their settings to and from line-delimited JSON.  Each
+ * line is one alarm, with the columns of its alarms row and, if it has
+ * one, its settings row as a nested object:
+ *
+ *   {"name":"Work","dow":31,"time":25200,"enabled":1,"settings":{...}}
+ *
+ * The default settings are a line of their own, {"defaults":{...}}.  Ids
+ * are not exported; imported alarms are given new ones, in file order, so
+ * an export followed by an import keeps the alarms in the same order.
+ *
+ * Imports are read one line at a time and inserted BATCH_SIZE alarms per
+ * transaction, so the size of the file doesn't matter.
+ */
+public final class AlarmTransfer {
+  static final int BATCH_SIZE = 500;
+
+  private static final String KEY_SETTINGS = "settings";
+  private static final String KEY_DEFAULTS = "defaults";
+
+  private static final Set<String> ALARM_COLUMNS =
+      columns(AlarmInfo.contentColumns(), DbHelper.ALARMS_COL__ID);
+  private static final Set<String> SETTINGS_COLUMNS =
+      columns(AlarmSettings.contentColumns(), DbHelper.SETTINGS_COL_ID);
+
+  /**
+   * The outcome of an import, filled in as each batch is committed so that
+   * it is still accurate when the import fails part way through.
+   */
+  public static final class ImportResult {
+    private int alarmCount;
+    private long[] enabledAlarmIds = new long[16];
+    private int enabledCount;
+
+    public int alarmCount() {
+      return alarmCount;
+    }
+
+    /**
+     * @return The new ids of the imported alarms which are enabled and
+     * still have to be scheduled.
+     */
+    public long[] enabledAlarmIds() {
+      return Arrays.copyOf(enabledAlarmIds, enabledCount);
+    }
+
+    private void committed(List<ContentValues> alarms, long[] ids) {
+      for (int i = 0; i < ids.length; ++i) {
+        Integer enabled =
+            alarms.get(i).getAsInteger(DbHelper.ALARMS_COL_ENABLED);
+        if (enabled != null && enabled == 1) {
+          if (enabledCount == enabledAlarmIds.length) {
+            enabledAlarmIds = Arrays.copyOf(enabledAlarmIds, enabledCount * 2);
+          }
+          enabledAlarmIds[enabledCount++] = ids[i];
+        }
+      }
+      alarmCount += ids.length;
+    }
+  }
+
+  private AlarmTransfer() {}
+
+  /**
+   * Writes every alarm, and the default settings, to out.
+   * @return The number of alarms written.
+   */
+  public static int exportAlarms(DbAccessor db, Writer out) throws IOException {
+    Cursor defaults = db.readDefaultSettingsRow();
+    try {
+      if (defaults.moveToFirst()) {
+        JsonWriter json = line(out);
+        json.beginObject();
+        json.name(KEY_DEFAULTS);
+        writeRow(json, defaults, SETTINGS_COLUMNS);
+        json.endObject();
+        json.flush();
+        out.write('\n');
+      }
+    } finally {
+      defaults.close();
+    }
+
+    int count = 0;
+    Cursor cursor = db.readAllAlarmDetails();
+    try {
+      int settingsId = cursor.getColumnIndex(DbHelper.SETTINGS_COL_ID);
+      while (cursor.moveToNext()) {
+        JsonWriter json = line(out);
+        json.beginObject();
+        writeColumns(json, cursor, ALARM_COLUMNS);
+        if (!cursor.isNull(settingsId)) {
+          json.name(KEY_SETTINGS);
+          writeRow(json, cursor, SETTINGS_COLUMNS);
+        }
+        json.endObject();
+        json.flush();
+        out.write('\n');
+        ++count;
+      }
+    } finally {
+      cursor.close();
+    }
+    out.flush();
+    return count;
+  }
+
+  /**
+   * Reads alarms written by exportAlarms() and inserts them as new alarms.
+   * A "defaults" line replaces the default settings.  Unknown keys are
+   * skipped.  A malformed line fails the import with an IOException, but
+   * the batches committed before it are kept and recorded in result, so
+   * that the caller can still schedule them.
+   */
+  public static void importAlarms(DbAccessor db, Reader in,
+      ImportResult result) throws IOException {
+    JsonReader json = new JsonReader(in);
+    // Lenient mode accepts a sequence of top level objects.
+    json.setLenient(true);
+
+    List<ContentValues> alarms = new ArrayList<>(BATCH_SIZE);
+    List<ContentValues> settings = new ArrayList<>(BATCH_SIZE);
+    try {
+      while (true) {
+        boolean end = json.peek() == JsonToken.END_DOCUMENT;
+        if (end || alarms.size() == BATCH_SIZE) {
+          result.committed(alarms, db.insertAlarms(alarms, settings));
+          alarms.clear();
+          settings.clear();
+        }
+        if (end) {
+          break;
+        }
+
+        ContentValues alarm = new ContentValues();
+        ContentValues alarmSettings = null;
+        json.beginObject();
+        while (json.hasNext()) {
+          String name = json.nextName();
+          if (name.equals(KEY_DEFAULTS)) {
+            db.writeDefaultSettingsRow(readRow(json, SETTINGS_COLUMNS));
+          } else if (name.equals(KEY_SETTINGS)) {
+            alarmSettings = readRow(json, SETTINGS_COLUMNS);
+          } else if (ALARM_COLUMNS.contains(name)) {
+            readValue(json, name, alarm);
+          } else {
+            json.skipValue();
+          }
+        }
+        json.endObject();
+        if (alarm.size() > 0) {
+          if (!alarm.containsKey(DbHelper.ALARMS_COL_ENABLED)) {
+            alarm.put(DbHelper.ALARMS_COL_ENABLED, 0);
+          }
+          checkRange(alarm, DbHelper.ALARMS_COL_TIME, 0, 86399);
+          checkRange(alarm, DbHelper.ALARMS_COL_DAY_OF_WEEK, 0,
+              Week.ALL_DAYS_MASK);
+          checkRange(alarm, DbHelper.ALARMS_COL_ENABLED, 0, 1);
+          alarms.add(alarm);
+          settings.add(alarmSettings);
+        }
+      }
+    } catch (IllegalStateException e) {
+      // JsonReader reports a token of the wrong type this way.
+      throw new IOException(e.getMessage(), e);
+    }
+  }
+
+  private static void checkRange(ContentValues alarm, String name, long min,
+      long max) throws IOException {
+    if (!alarm.containsKey(name)) {
+      return;
+    }
+    Long value = alarm.getAsLong(name);
+    if (value == null || value < min || value > max) {
+      throw new IOException("Invalid " + name + ": " + alarm.get(name));
+    }
+  }
+
+  // A writer for one line of output.  Its close() would close out, so it
+  // is only ever flushed.
+  private static JsonWriter line(Writer out) {
+    return new JsonWriter(out);
+  }
+
+  private static void writeRow(JsonWriter json, Cursor cursor,
+      Set<String> columns) throws IOException {
+    json.beginObject();
+    writeColumns(json, cursor, columns);
+    json.endObject();
+  }
+
+  private static void writeColumns(JsonWriter json, Cursor cursor,
+      Set<String> columns) throws IOException {
+    for (String column : columns) {
+      int index = cursor.getColumnIndex(column);
+      if (index < 0) {
+        continue;
+      }
+      json.name(column);
+      switch (cursor.getType(index)) {
+        case Cursor.FIELD_TYPE_NULL:
+          json.nullValue();
+          break;
+        case Cursor.FIELD_TYPE_INTEGER:
+          json.value(cursor.getLong(index));
+          break;
+        case Cursor.FIELD_TYPE_FLOAT:
+          json.value(cursor.getDouble(index));
+          break;
+        default:
+          json.value(cursor.getString(index));
+          break;
+      }
+    }
+  }
+
+  private static ContentValues readRow(JsonReader json, Set<String> columns)
+      throws IOException {
+    ContentValues values = new ContentValues();
+    json.beginObject();
+    while (json.hasNext()) {
+      String name = json.nextName();
+      if (columns.contains(name)) {
+        readValue(json, name, values);
+      } else {
+        json.skipValue();
+      }
+    }
+    json.endObject();
+    return values;
+  }
+
+  private static void readValue(JsonReader json, String name,
+      ContentValues values) throws IOException {
+    switch (json.peek()) {
+      case NULL:
+        json.nextNull();
+        values.putNull(name);
+        break;
+      case BOOLEAN:
+        values.put(name, json.nextBoolean() ? 1 : 0);
+        break;
+      case NUMBER:
+        values.put(name, readLong(json, name));
+        break;
+      case STRING:
+        values.put(name, json.nextString());
+        break;
+      default:
+        throw new IOException("Unexpected " + json.peek() + " for " + name);
+    }
+  }
+
+  // Every column is an integer, but JSON doesn't tell 25200 and 25200.0
+  // apart, so integral values written as decimals are accepted too.
+  private static long readLong(JsonReader json, String name)
+      throws IOException {
+    String number = json.nextString();
+    try {
+      return Long.parseLong(number);
+    } catch (NumberFormatException e) {
+      // Try it as a decimal below.
+    }
+    try {
+      double value = Double.parseDouble(number);
+      if (value == Math.rint(value) && Math.abs(value) < 0x1p53) {
+        return (long) value;
+      }
+    } catch (NumberFormatException e) {
+      // Reported below.
+    }
+    throw new IOException("Expected an integer for " + name + ": " + number);
+  }
+
+  private static Set<String> columns(String[] all, String id) {
+    Set<String> columns = new LinkedHashSet<>(Arrays.asList(all));
+    columns.remove(id);
+    return columns;
+  }
+}
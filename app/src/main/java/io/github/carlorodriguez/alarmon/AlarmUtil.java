@@ -39,12 +39,12 @@ public final class AlarmUtil {
   }
 
   public static long millisTillNextInterval(Interval interval) {
-    long now = System.currentTimeMillis();
+    long now = TimeSource.get().currentTimeMillis();
     return interval.millis() - now % interval.millis();
   }
 
   public static long nextIntervalInUTC(Interval interval) {
-    long now = System.currentTimeMillis();
+    long now = TimeSource.get().currentTimeMillis();
     return now + interval.millis() - now % interval.millis();
   }
 
@@ -0,0 +1,364 @@
+/****************************************************************************
+ * Copyright 2010 kraigs.android@gmail.com
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ****************************************************************************/
+
+package io.github.carlorodriguez.alarmon;
+
+import java.util.ArrayList;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteException;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.support.v4.util.LongSparseArray;
+import android.util.Log;
+
+/**
+ * Writes alarms, settings and logged events to the database on a background
+ * thread, so that the UI never waits for a commit.  Writes to the same alarm
+ * that queue up before the writer gets to them are coalesced, keeping only
+ * the latest, and everything pending is committed in one transaction.
+ *
+ * Callers which need their writes on disk before going on (before reading
+ * the database directly, or before another write that must not be
+ * reordered with them) call flush().  Readers that only need the latest
+ * copy of one row ask pendingAlarmInfo() and pendingAlarmSettings() first
+ * instead.
+ *
+ * A batch that fails to commit is put back behind any newer writes to the
+ * same rows and retried a few times before it is dropped.
+ */
+public final class AlarmWriteQueue {
+  private static final String TAG = "AlarmWriteQueue";
+  // Attempts at committing a batch before it is dropped, and the wait
+  // before the first retry, doubled for each one after.
+  private static final int MAX_ATTEMPTS = 3;
+  private static final long RETRY_DELAY_MILLIS = 500;
+
+  private static final Object lock = new Object();
+  private static Context context;
+  private static Handler writer;
+  // Only used on the writer thread, which keeps it for the life of the
+  // process.
+  private static DbAccessor db;
+
+  // Latest unwritten copy of each alarm and settings row.
+  private static LongSparseArray<AlarmInfo> pendingInfos =
+      new LongSparseArray<>();
+  private static LongSparseArray<AlarmSettings> pendingSettings =
+      new LongSparseArray<>();
+  // Events are appended, never coalesced.
+  private static ArrayList<AlarmEventLog.Event> pendingEvents =
+      new ArrayList<>();
+  // True from posting a drain until it takes the pending writes.
+  private static boolean scheduled;
+  // True while the writer is committing a batch taken off the queue.
+  private static boolean writing;
+  // The rows of that batch, which are newer than the database until it
+  // commits.
+  private static LongSparseArray<AlarmInfo> writingInfos;
+  private static LongSparseArray<AlarmSettings> writingSettings;
+  // Failed attempts at committing the pending writes.
+  private static int failures;
+  // Batches given up on after MAX_ATTEMPTS.
+  private static int droppedCount;
+  // Callbacks to post once the queue is empty.
+  private static final ArrayList<Runnable> idleCallbacks = new ArrayList<>();
+  private static final ArrayList<Handler> idleHandlers = new ArrayList<>();
+
+  private static int transactionCount;
+  private static int rowCount;
+  private static long transactionMillis;
+
+  private AlarmWriteQueue() {}
+
+  public static void writeAlarmInfo(Context context, long alarmId,
+      AlarmInfo info) {
+    synchronized (lock) {
+      pendingInfos.put(alarmId, new AlarmInfo(info));
+      schedule(context);
+    }
+  }
+
+  public static void writeAlarmSettings(Context context, long alarmId,
+      AlarmSettings settings) {
+    synchronized (lock) {
+      pendingSettings.put(alarmId, new AlarmSettings(settings));
+      schedule(context);
+    }
+  }
+
+  /**
+   * Queues the settings of several alarms, waking the writer once.
+   */
+  public static void writeAlarmSettings(Context context, long[] alarmIds,
+      AlarmSettings[] settings) {
+    synchronized (lock) {
+      for (int i = 0; i < alarmIds.length; ++i) {
+        pendingSettings.put(alarmIds[i], new AlarmSettings(settings[i]));
+      }
+      schedule(context);
+    }
+  }
+
+  static void recordEvent(Context context, AlarmEventLog.Event event) {
+    synchronized (lock) {
+      pendingEvents.add(event);
+      schedule(context);
+    }
+  }
+
+  /**
+   * Blocks until every write queued before this call is committed, or
+   * dropped after failing.  The UI thread should use whenIdle() instead.
+   * @return false if a batch was dropped while waiting, or the wait was
+   * interrupted.
+   */
+  public static boolean flush() {
+    synchronized (lock) {
+      int dropped = droppedCount;
+      while (isBusy()) {
+        try {
+          lock.wait();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          return false;
+        }
+      }
+      return droppedCount == dropped;
+    }
+  }
+
+  /**
+   * @return A copy of the queued write of an alarm which is not yet
+   * committed, or null if the database is up to date.
+   */
+  public static AlarmInfo pendingAlarmInfo(long alarmId) {
+    synchronized (lock) {
+      AlarmInfo info = pendingInfos.get(alarmId);
+      if (info == null && writingInfos != null) {
+        info = writingInfos.get(alarmId);
+      }
+      return info == null ? null : new AlarmInfo(info);
+    }
+  }
+
+  /**
+   * @return A copy of the queued write of an alarm's settings, or of the
+   * defaults, which is not yet committed, or null if there is none.
+   */
+  public static AlarmSettings pendingAlarmSettings(long alarmId) {
+    synchronized (lock) {
+      AlarmSettings settings = pendingSettings.get(alarmId);
+      if (settings == null && writingSettings != null) {
+        settings = writingSettings.get(alarmId);
+      }
+      return settings == null ? null : new AlarmSettings(settings);
+    }
+  }
+
+  /**
+   * Posts callback to handler once every queued write is committed.
+   * @return false, without posting anything, if nothing is queued.
+   */
+  public static boolean whenIdle(Handler handler, Runnable callback) {
+    synchronized (lock) {
+      if (!isBusy()) {
+        return false;
+      }
+      idleHandlers.add(handler);
+      idleCallbacks.add(callback);
+      return true;
+    }
+  }
+
+  public static boolean isBusy() {
+    synchronized (lock) {
+      return writing || hasPending();
+    }
+  }
+
+  /**
+   * @return The number of transactions committed by the writer.
+   */
+  public static int transactionCount() {
+    synchronized (lock) {
+      return transactionCount;
+    }
+  }
+
+  /**
+   * @return The number of alarm and settings rows written, which is less
+   * than the number of writes queued if some were coalesced.
+   */
+  public static int rowCount() {
+    synchronized (lock) {
+      return rowCount;
+    }
+  }
+
+  /**
+   * @return Transactions committed per second of writer time.
+   */
+  public static double transactionsPerSecond() {
+    synchronized (lock) {
+      return transactionMillis == 0
+          ? 0 : transactionCount * 1000.0 / transactionMillis;
+    }
+  }
+
+  /**
+   * @return The writer's looper, or null if nothing was queued since the
+   * last shutdown().
+   */
+  static Looper looper() {
+    synchronized (lock) {
+      return writer == null ? null : writer.getLooper();
+    }
+  }
+
+  /**
+   * Stops the writer, dropping anything still queued, and releases its
+   * database connection.  A later write starts a new writer.  Tests call
+   * this between cases; it must not race with a batch being written.
+   */
+  static void shutdown() {
+    synchronized (lock) {
+      if (writer != null) {
+        writer.getLooper().quit();
+        writer = null;
+      }
+      if (db != null) {
+        db.closeConnections();
+        db = null;
+      }
+      pendingInfos = new LongSparseArray<>();
+      pendingSettings = new LongSparseArray<>();
+      pendingEvents = new ArrayList<>();
+      scheduled = false;
+      failures = 0;
+      idleHandlers.clear();
+      idleCallbacks.clear();
+      lock.notifyAll();
+    }
+  }
+
+  // Called with lock held.
+  private static boolean hasPending() {
+    return pendingInfos.size() > 0 || pendingSettings.size() > 0
+        || !pendingEvents.isEmpty();
+  }
+
+  // Called with lock held.
+  private static void schedule(Context caller) {
+    if (writer == null) {
+      context = caller.getApplicationContext();
+      HandlerThread thread = new HandlerThread("AlarmWriter");
+      thread.start();
+      writer = new Handler(thread.getLooper());
+    }
+    // A drain in progress picks up new writes when it finishes.
+    if (!scheduled && !writing) {
+      scheduled = true;
+      writer.post(drain);
+    }
+  }
+
+  // Called with lock held.  Puts a batch which failed back in the queue,
+  // behind anything written to the same rows since it was taken.
+  private static void requeue(LongSparseArray<AlarmInfo> infos,
+      LongSparseArray<AlarmSettings> settings,
+      ArrayList<AlarmEventLog.Event> events) {
+    for (int i = 0; i < infos.size(); ++i) {
+      if (pendingInfos.indexOfKey(infos.keyAt(i)) < 0) {
+        pendingInfos.put(infos.keyAt(i), infos.valueAt(i));
+      }
+    }
+    for (int i = 0; i < settings.size(); ++i) {
+      if (pendingSettings.indexOfKey(settings.keyAt(i)) < 0) {
+        pendingSettings.put(settings.keyAt(i), settings.valueAt(i));
+      }
+    }
+    events.addAll(pendingEvents);
+    pendingEvents = events;
+  }
+
+  private static final Runnable drain = new Runnable() {
+    @Override
+    public void run() {
+      LongSparseArray<AlarmInfo> infos;
+      LongSparseArray<AlarmSettings> settings;
+      ArrayList<AlarmEventLog.Event> events;
+      synchronized (lock) {
+        infos = pendingInfos;
+        settings = pendingSettings;
+        events = pendingEvents;
+        pendingInfos = new LongSparseArray<>();
+        pendingSettings = new LongSparseArray<>();
+        pendingEvents = new ArrayList<>();
+        writingInfos = infos;
+        writingSettings = settings;
+        scheduled = false;
+        writing = true;
+      }
+
+      long start = SystemClock.elapsedRealtime();
+      boolean committed = false;
+      try {
+        if (db == null) {
+          db = new DbAccessor(context);
+        }
+        db.writeAll(infos, settings, events);
+        committed = true;
+      } catch (SQLiteException e) {
+        Log.w(TAG, "Unable to write " + (infos.size() + settings.size())
+            + " rows and " + events.size() + " events", e);
+      } finally {
+        synchronized (lock) {
+          writing = false;
+          writingInfos = null;
+          writingSettings = null;
+          transactionMillis += SystemClock.elapsedRealtime() - start;
+          long delay = 0;
+          if (committed) {
+            failures = 0;
+            ++transactionCount;
+            rowCount += infos.size() + settings.size();
+          } else if (++failures < MAX_ATTEMPTS) {
+            requeue(infos, settings, events);
+            delay = RETRY_DELAY_MILLIS << (failures - 1);
+          } else {
+            Log.e(TAG, "Dropped writes after " + failures + " attempts");
+            failures = 0;
+            ++droppedCount;
+          }
+          if (hasPending()) {
+            // More arrived while committing, or the batch is retried.
+            scheduled = true;
+            writer.postDelayed(drain, delay);
+          } else {
+            for (int i = 0; i < idleCallbacks.size(); ++i) {
+              idleHandlers.get(i).post(idleCallbacks.get(i));
+            }
+            idleHandlers.clear();
+            idleCallbacks.clear();
+          }
+          lock.notifyAll();
+        }
+      }
+    }
+  };
+}
@@ -15,6 +15,8 @@
 
 package io.github.carlorodriguez.alarmon;
 
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -22,20 +24,78 @@ import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.net.Uri;
+import android.support.v4.util.LongSparseArray;
 
 public final class DbAccessor {
+  /**
+   * Receives the rows of a streaming read one at a time.
+   */
+  public interface AlarmInfoVisitor {
+    void visit(AlarmInfo info);
+  }
+
+  private static final String WHERE_ALARM_ID = DbHelper.ALARMS_COL__ID + " = ?";
+  private static final String WHERE_SETTINGS_ID = DbHelper.SETTINGS_COL_ID + " = ?";
+  // Every alarm row with its settings row, if there is one.
+  private static final String SELECT_ALL_ALARM_DETAILS = selectAlarmDetails();
+  private static final String SELECT_ALARM_DETAILS = SELECT_ALL_ALARM_DETAILS
+      + " WHERE a." + DbHelper.ALARMS_COL__ID + " = ?";
+  private static final String SELECT_ALL_ALARM_DETAILS_BY_ID =
+      SELECT_ALL_ALARM_DETAILS + " ORDER BY a." + DbHelper.ALARMS_COL__ID;
+
+  private static final String SELECT_FIRE_LATENESS = "SELECT "
+      + DbHelper.EVENTS_COL_TIME + " - " + DbHelper.EVENTS_COL_TARGET
+      + " AS late FROM " + DbHelper.DB_TABLE_EVENTS
+      + " WHERE " + DbHelper.EVENTS_COL_TYPE + " = " + AlarmEventLog.FIRED
+      + " AND " + DbHelper.EVENTS_COL_TARGET + " > 0 ORDER BY late";
+  private static final String SELECT_TIME_TO_SOUND = "SELECT delay FROM"
+      + " (SELECT s." + DbHelper.EVENTS_COL_TIME + " - (SELECT MAX(f."
+      + DbHelper.EVENTS_COL_TIME + ") FROM " + DbHelper.DB_TABLE_EVENTS + " f"
+      + " WHERE f." + DbHelper.EVENTS_COL_ALARM_ID
+      + " = s." + DbHelper.EVENTS_COL_ALARM_ID
+      + " AND f." + DbHelper.EVENTS_COL_TYPE + " = " + AlarmEventLog.FIRED
+      + " AND f." + DbHelper.EVENTS_COL_TIME + " <= s." + DbHelper.EVENTS_COL_TIME
+      + ") AS delay FROM " + DbHelper.DB_TABLE_EVENTS + " s"
+      + " WHERE s." + DbHelper.EVENTS_COL_TYPE + " = " + AlarmEventLog.SOUND_STARTED
+      + ") WHERE delay IS NOT NULL ORDER BY delay";
+
+  private Context context;
   private SQLiteDatabase rDb;
   private SQLiteDatabase rwDb;
+  private boolean closed;
+
+  // Write statements, compiled on first use and reused with new bindings.
+  private SQLiteStatement enableAlarmStatement;
+  private SQLiteStatement deleteAlarmStatement;
+  private SQLiteStatement updateAlarmStatement;
+  // Change notifications held until the current transaction ends.
+  private final LinkedHashSet<Uri> deferredChanges = new LinkedHashSet<>();
 
   public DbAccessor(Context context) {
-    DbHelper db = new DbHelper(context);
-    rwDb = db.getWritableDatabase();
-    rDb = db.getReadableDatabase();
+    this.context = context.getApplicationContext();
+    // Reads and writes share the process-wide connection.
+    rwDb = SharedDatabase.acquire(context);
+    rDb = rwDb;
+  }
+
+  public Context context() {
+    return context;
   }
 
   public void closeConnections() {
-    rDb.close();
-    rwDb.close();
+    if (closed) {
+      return;
+    }
+    closed = true;
+    for (SQLiteStatement statement : new SQLiteStatement[] {
+        enableAlarmStatement, deleteAlarmStatement, updateAlarmStatement }) {
+      if (statement != null) {
+        statement.close();
+      }
+    }
+    SharedDatabase.release();
   }
 
   public long newAlarm(AlarmTime time, boolean enabled, String name) {
@@ -45,24 +105,72 @@ public final class DbAccessor {
     if (id < 0) {
       throw new IllegalStateException("Unable to insert into database");
     }
+    changed(AlarmProvider.alarmUri(id));
     return id;
   }
 
-  public boolean deleteAlarm(long alarmId) {
-    int count = rDb.delete(DbHelper.DB_TABLE_ALARMS,
-        DbHelper.ALARMS_COL__ID + " = " + alarmId, null);
-    // This may or may not exist.  We don't care about the return value.
-    rDb.delete(DbHelper.DB_TABLE_SETTINGS,
-        DbHelper.SETTINGS_COL_ID + " = " + alarmId, null);
-    return count > 0;
+  public synchronized boolean deleteAlarm(long alarmId) {
+    // The alarms_delete_settings trigger removes the settings row, if any.
+    if (deleteAlarmStatement == null) {
+      deleteAlarmStatement = rwDb.compileStatement("DELETE FROM "
+          + DbHelper.DB_TABLE_ALARMS + " WHERE " + WHERE_ALARM_ID);
+    }
+    deleteAlarmStatement.bindLong(1, alarmId);
+    if (deleteAlarmStatement.executeUpdateDelete() == 0) {
+      return false;
+    }
+    changed(AlarmProvider.alarmUri(alarmId));
+    changed(AlarmProvider.settingsUri(alarmId));
+    return true;
+  }
+
+  /**
+   * Deletes several alarms and their settings in one statement.
+   * @param alarmIds Alarm ids
+   * @return The number of alarms deleted.
+   */
+  public int deleteAlarms(long[] alarmIds) {
+    if (alarmIds.length == 0) {
+      return 0;
+    }
+    int count = rwDb.delete(DbHelper.DB_TABLE_ALARMS,
+        idIn(DbHelper.ALARMS_COL__ID, alarmIds), null);
+    changedAlarms(alarmIds);
+    changed(AlarmProvider.SETTINGS_URI);
+    return count;
   }
 
-  public boolean enableAlarm(long alarmId, boolean enabled) {
+  public synchronized boolean enableAlarm(long alarmId, boolean enabled) {
+    if (enableAlarmStatement == null) {
+      enableAlarmStatement = rwDb.compileStatement("UPDATE "
+          + DbHelper.DB_TABLE_ALARMS + " SET " + DbHelper.ALARMS_COL_ENABLED
+          + " = ? WHERE " + WHERE_ALARM_ID);
+    }
+    enableAlarmStatement.bindLong(1, enabled ? 1 : 0);
+    enableAlarmStatement.bindLong(2, alarmId);
+    if (enableAlarmStatement.executeUpdateDelete() == 0) {
+      return false;
+    }
+    changed(AlarmProvider.alarmUri(alarmId));
+    return true;
+  }
+
+  /**
+   * Sets the enabled flag of several alarms in a single statement.
+   * @param alarmIds Alarm ids
+   * @param enabled Enabled
+   * @return The number of alarms updated.
+   */
+  public int enableAlarms(long[] alarmIds, boolean enabled) {
+    if (alarmIds.length == 0) {
+      return 0;
+    }
     ContentValues values = new ContentValues(1);
     values.put(DbHelper.ALARMS_COL_ENABLED, enabled);
     int count = rwDb.update(DbHelper.DB_TABLE_ALARMS, values,
-        DbHelper.ALARMS_COL__ID + " = " + alarmId, null);
-    return count != 0;
+        idIn(DbHelper.ALARMS_COL__ID, alarmIds), null);
+    changedAlarms(alarmIds);
+    return count;
   }
 
   public List<Long> getEnabledAlarms() {
@@ -78,22 +186,96 @@ public final class DbAccessor {
     return enabled;
   }
 
+  /**
+   * Streams every enabled alarm to the visitor from a single cursor pass.
+   * All rows are computed against the same OccurrenceCalculator.
+   * @param visitor Called once per enabled alarm.
+   * @return The number of alarms visited.
+   */
+  public int forEachEnabledAlarm(AlarmInfoVisitor visitor) {
+    Cursor cursor = rDb.query(DbHelper.DB_TABLE_ALARMS,
+        AlarmInfo.contentColumns(),
+        DbHelper.ALARMS_COL_ENABLED + " = 1", null, null, null, null);
+    int count = 0;
+    try {
+      AlarmInfo.RowMapper mapper = new AlarmInfo.RowMapper(cursor);
+      while (cursor.moveToNext()) {
+        visitor.visit(mapper.map(cursor));
+        ++count;
+      }
+    } finally {
+      cursor.close();
+    }
+    return count;
+  }
+
   public List<Long> getAllAlarms() {
     LinkedList<Long> alarms = new LinkedList<>();
     Cursor cursor = rDb.query(DbHelper.DB_TABLE_ALARMS,
         new String[] { DbHelper.ALARMS_COL__ID },
         null, null, null, null, null);
     while (cursor.moveToNext()) {
-      long alarmId = cursor.getLong(cursor.getColumnIndex(DbHelper.ALARMS_COL__ID));
-      alarms.add(alarmId);
+      alarms.add(cursor.getLong(0));
     }
     cursor.close();
     return alarms;
   }
 
-  public boolean writeAlarmInfo(long alarmId, AlarmInfo info) {
-    return rwDb.update(DbHelper.DB_TABLE_ALARMS, info.contentValues(),
-          DbHelper.ALARMS_COL__ID + " = " + alarmId, null) == 1;
+  public synchronized boolean writeAlarmInfo(long alarmId, AlarmInfo info) {
+    if (updateAlarmStatement == null) {
+      updateAlarmStatement = rwDb.compileStatement("UPDATE "
+          + DbHelper.DB_TABLE_ALARMS + " SET "
+          + DbHelper.ALARMS_COL_TIME + " = ?, "
+          + DbHelper.ALARMS_COL_ENABLED + " = ?, "
+          + DbHelper.ALARMS_COL_NAME + " = ?, "
+          + DbHelper.ALARMS_COL_DAY_OF_WEEK + " = ? WHERE " + WHERE_ALARM_ID);
+    }
+    updateAlarmStatement.bindLong(1, info.getTime().secondsOfDay());
+    updateAlarmStatement.bindLong(2, info.enabled() ? 1 : 0);
+    if (info.getName() == null) {
+      updateAlarmStatement.bindNull(3);
+    } else {
+      updateAlarmStatement.bindString(3, info.getName());
+    }
+    updateAlarmStatement.bindLong(4, info.getTime().daysOfWeekMask());
+    updateAlarmStatement.bindLong(5, alarmId);
+    if (updateAlarmStatement.executeUpdateDelete() != 1) {
+      return false;
+    }
+    changed(AlarmProvider.alarmUri(alarmId));
+    return true;
+  }
+
+  /**
+   * Writes several alarm and settings rows, and appends to the event log,
+   * in one transaction.
+   * @param infos Alarms by id
+   * @param settings Settings by alarm id
+   * @param events Events to log
+   */
+  public void writeAll(LongSparseArray<AlarmInfo> infos,
+      LongSparseArray<AlarmSettings> settings, List<AlarmEventLog.Event> events) {
+    rwDb.beginTransactionNonExclusive();
+    try {
+      for (int i = 0; i < infos.size(); ++i) {
+        writeAlarmInfo(infos.keyAt(i), infos.valueAt(i));
+      }
+      if (settings.size() > 0) {
+        long[] alarmIds = new long[settings.size()];
+        AlarmSettings[] values = new AlarmSettings[settings.size()];
+        for (int i = 0; i < alarmIds.length; ++i) {
+          alarmIds[i] = settings.keyAt(i);
+          values[i] = settings.valueAt(i);
+        }
+        writeAlarmSettings(alarmIds, values);
+      }
+      if (!events.isEmpty()) {
+        appendEvents(events);
+      }
+      rwDb.setTransactionSuccessful();
+    } finally {
+      endTransaction();
+    }
   }
 
   public Cursor readAlarmInfo() {
@@ -102,9 +284,9 @@ public final class DbAccessor {
   }
 
   public AlarmInfo readAlarmInfo(long alarmId) {
-    Cursor cursor = rDb.query(DbHelper.DB_TABLE_ALARMS, 
+    Cursor cursor = rDb.query(DbHelper.DB_TABLE_ALARMS,
         AlarmInfo.contentColumns(),
-        DbHelper.ALARMS_COL__ID + " = " + alarmId, null, null, null, null);
+        WHERE_ALARM_ID, idArg(alarmId), null, null, null);
 
     if (cursor.getCount() != 1) {
       cursor.close();
@@ -117,26 +299,201 @@ public final class DbAccessor {
     return info;
   }
 
-  public boolean writeAlarmSettings(long alarmId, AlarmSettings settings) {
-    Cursor cursor = rDb.query(DbHelper.DB_TABLE_SETTINGS,
-        new String[] { DbHelper.SETTINGS_COL_ID },
-        DbHelper.SETTINGS_COL_ID + " = " + alarmId, null, null, null, null);
+  /**
+   * Reads several alarms with a single query.  Ids without a row are
+   * skipped.
+   * @param alarmIds Alarm ids
+   * @return The alarms found, in no particular order.
+   */
+  public List<AlarmInfo> readAlarmInfo(long[] alarmIds) {
+    ArrayList<AlarmInfo> infos = new ArrayList<>(alarmIds.length);
+    if (alarmIds.length == 0) {
+      return infos;
+    }
 
-    boolean success;
-    if (cursor.getCount() < 1) {
-      success = rwDb.insert(DbHelper.DB_TABLE_SETTINGS, null, settings.contentValues(alarmId)) >= 0;
-    } else {
-      success = rwDb.update(DbHelper.DB_TABLE_SETTINGS, settings.contentValues(alarmId),
-          DbHelper.SETTINGS_COL_ID + " = " + alarmId, null) == 1;
+    Cursor cursor = rDb.query(DbHelper.DB_TABLE_ALARMS,
+        AlarmInfo.contentColumns(),
+        idIn(DbHelper.ALARMS_COL__ID, alarmIds), null, null, null, null);
+
+    AlarmInfo.RowMapper mapper = new AlarmInfo.RowMapper(cursor);
+    while (cursor.moveToNext()) {
+      infos.add(mapper.map(cursor));
     }
     cursor.close();
+    return infos;
+  }
+
+  /**
+   * Reads an alarm and its settings row in one query.  AlarmRepository
+   * fills in the default settings for alarms without a row of their own.
+   * @param alarmId Alarm id
+   * @return The alarm, with null settings if it has none of its own, or
+   * null if it doesn't exist.
+   */
+  public AlarmDetails readAlarmDetails(long alarmId) {
+    Cursor cursor = rDb.rawQuery(SELECT_ALARM_DETAILS, idArg(alarmId));
+    try {
+      if (!cursor.moveToFirst()) {
+        return null;
+      }
+      AlarmInfo info = new AlarmInfo(cursor);
+      AlarmSettings settings =
+          cursor.isNull(cursor.getColumnIndex(DbHelper.SETTINGS_COL_ID))
+          ? null : new AlarmSettings(cursor);
+      return new AlarmDetails(info, settings);
+    } finally {
+      cursor.close();
+    }
+  }
+
+  /**
+   * Inserts or replaces the settings row of an alarm in one statement.
+   */
+  public boolean writeAlarmSettings(long alarmId, AlarmSettings settings) {
+    boolean success = rwDb.insertWithOnConflict(DbHelper.DB_TABLE_SETTINGS,
+        null, settings.contentValues(alarmId),
+        SQLiteDatabase.CONFLICT_REPLACE) >= 0;
+    if (success) {
+      changed(AlarmProvider.settingsUri(alarmId));
+    }
     return success;
   }
 
+  /**
+   * Writes the settings of several alarms in one transaction, or as part
+   * of the caller's transaction.
+   * @param alarmIds Alarm ids
+   * @param settings The settings of each alarm.
+   * @return The number of rows written.
+   */
+  public int writeAlarmSettings(long[] alarmIds, AlarmSettings[] settings) {
+    if (alarmIds.length != settings.length) {
+      throw new IllegalArgumentException(
+          alarmIds.length + " alarms but " + settings.length + " settings");
+    }
+    int count = 0;
+    rwDb.beginTransactionNonExclusive();
+    try {
+      for (int i = 0; i < alarmIds.length; ++i) {
+        if (writeAlarmSettings(alarmIds[i], settings[i])) {
+          ++count;
+        }
+      }
+      rwDb.setTransactionSuccessful();
+    } finally {
+      endTransaction();
+    }
+    return count;
+  }
+
+  /**
+   * @return Every alarm joined with its settings row, which is all null
+   * for alarms without settings of their own, in the order the alarms were
+   * created.
+   */
+  public Cursor readAllAlarmDetails() {
+    return rDb.rawQuery(SELECT_ALL_ALARM_DETAILS_BY_ID, null);
+  }
+
+  /**
+   * @return The default settings row, if it has been written.
+   */
+  public Cursor readDefaultSettingsRow() {
+    return rDb.query(DbHelper.DB_TABLE_SETTINGS,
+        AlarmSettings.contentColumns(),
+        WHERE_SETTINGS_ID, idArg(AlarmSettings.DEFAULT_SETTINGS_ID),
+        null, null, null);
+  }
+
+  /**
+   * Replaces the default settings with a row of raw column values.
+   */
+  public void writeDefaultSettingsRow(ContentValues values) {
+    values.put(DbHelper.SETTINGS_COL_ID, AlarmSettings.DEFAULT_SETTINGS_ID);
+    rwDb.insertWithOnConflict(DbHelper.DB_TABLE_SETTINGS, null, values,
+        SQLiteDatabase.CONFLICT_REPLACE);
+    changed(AlarmProvider.SETTINGS_URI);
+  }
+
+  /**
+   * Inserts new alarms from raw column values, each with its settings row
+   * if it has one, in one transaction.
+   * @param alarms Alarm rows, without ids.
+   * @param settings The settings row of each alarm, without an id, or null.
+   * @return The id of each new alarm.
+   */
+  public long[] insertAlarms(List<ContentValues> alarms,
+      List<ContentValues> settings) {
+    long[] ids = new long[alarms.size()];
+    if (ids.length == 0) {
+      return ids;
+    }
+    rwDb.beginTransactionNonExclusive();
+    try {
+      for (int i = 0; i < ids.length; ++i) {
+        ids[i] = rwDb.insertOrThrow(DbHelper.DB_TABLE_ALARMS, null, alarms.get(i));
+        ContentValues alarmSettings = settings.get(i);
+        if (alarmSettings != null) {
+          alarmSettings.put(DbHelper.SETTINGS_COL_ID, ids[i]);
+          rwDb.insertWithOnConflict(DbHelper.DB_TABLE_SETTINGS, null,
+              alarmSettings, SQLiteDatabase.CONFLICT_REPLACE);
+        }
+      }
+      rwDb.setTransactionSuccessful();
+    } finally {
+      endTransaction();
+    }
+    changed(AlarmProvider.ALARMS_URI);
+    return ids;
+  }
+
+  /**
+   * Appends to the event log, then drops the oldest events beyond
+   * AlarmEventLog.RETENTION.
+   */
+  public void appendEvents(List<AlarmEventLog.Event> events) {
+    rwDb.beginTransactionNonExclusive();
+    try {
+      ContentValues values = new ContentValues(4);
+      for (AlarmEventLog.Event event : events) {
+        values.put(DbHelper.EVENTS_COL_ALARM_ID, event.alarmId);
+        values.put(DbHelper.EVENTS_COL_TYPE, event.type);
+        values.put(DbHelper.EVENTS_COL_TIME, event.timeMillis);
+        values.put(DbHelper.EVENTS_COL_TARGET, event.targetMillis);
+        rwDb.insertOrThrow(DbHelper.DB_TABLE_EVENTS, null, values);
+      }
+      // Ids only grow, so everything this far behind the newest is older
+      // than the retained window.
+      rwDb.execSQL("DELETE FROM " + DbHelper.DB_TABLE_EVENTS
+          + " WHERE " + DbHelper.EVENTS_COL__ID + " <= (SELECT MAX("
+          + DbHelper.EVENTS_COL__ID + ") FROM " + DbHelper.DB_TABLE_EVENTS
+          + ") - " + AlarmEventLog.RETENTION);
+      rwDb.setTransactionSuccessful();
+    } finally {
+      endTransaction();
+    }
+  }
+
+  /**
+   * @return The delay of every logged firing after the time it was set
+   * for, in ascending order.
+   */
+  public long[] readFireLateness() {
+    return readLongs(rDb.rawQuery(SELECT_FIRE_LATENESS, null));
+  }
+
+  /**
+   * @return The delay of every logged sound start after the latest firing
+   * of its alarm, in ascending order.
+   */
+  public long[] readTimeToSound() {
+    return readLongs(rDb.rawQuery(SELECT_TIME_TO_SOUND, null));
+  }
+
   public AlarmSettings readAlarmSettings(long alarmId) {
-    Cursor cursor = rDb.query(DbHelper.DB_TABLE_SETTINGS, 
+    Cursor cursor = rDb.query(DbHelper.DB_TABLE_SETTINGS,
         AlarmSettings.contentColumns(),
-        DbHelper.SETTINGS_COL_ID + " = " + alarmId, null, null, null, null);
+        WHERE_SETTINGS_ID, idArg(alarmId), null, null, null);
 
     if (cursor.getCount() != 1) {
       cursor.close();
@@ -150,4 +507,81 @@ public final class DbAccessor {
     cursor.close();
     return settings;
   }
+
+  private static String selectAlarmDetails() {
+    StringBuilder sql = new StringBuilder("SELECT ");
+    for (String column : AlarmInfo.contentColumns()) {
+      sql.append("a.").append(column).append(" AS ").append(column).append(", ");
+    }
+    String[] settingsColumns = AlarmSettings.contentColumns();
+    for (int i = 0; i < settingsColumns.length; ++i) {
+      if (i > 0) {
+        sql.append(", ");
+      }
+      sql.append("s.").append(settingsColumns[i])
+          .append(" AS ").append(settingsColumns[i]);
+    }
+    return sql.append(" FROM ").append(DbHelper.DB_TABLE_ALARMS).append(" a")
+        .append(" LEFT JOIN ").append(DbHelper.DB_TABLE_SETTINGS).append(" s")
+        .append(" ON s.").append(DbHelper.SETTINGS_COL_ID)
+        .append(" = a.").append(DbHelper.ALARMS_COL__ID)
+        .toString();
+  }
+
+  // Notifies observers of AlarmProvider that uri changed, once the
+  // current transaction (if any) has ended.
+  private void changed(Uri uri) {
+    synchronized (deferredChanges) {
+      if (rwDb.inTransaction()) {
+        deferredChanges.add(uri);
+        return;
+      }
+    }
+    context.getContentResolver().notifyChange(uri, null);
+  }
+
+  // A single alarm is notified on its own URI, several on the table's.
+  private void changedAlarms(long[] alarmIds) {
+    changed(alarmIds.length == 1
+        ? AlarmProvider.alarmUri(alarmIds[0]) : AlarmProvider.ALARMS_URI);
+  }
+
+  private void endTransaction() {
+    rwDb.endTransaction();
+    Uri[] changes;
+    synchronized (deferredChanges) {
+      if (rwDb.inTransaction()) {
+        return;
+      }
+      changes = deferredChanges.toArray(new Uri[deferredChanges.size()]);
+      deferredChanges.clear();
+    }
+    for (Uri uri : changes) {
+      context.getContentResolver().notifyChange(uri, null);
+    }
+  }
+
+  private static long[] readLongs(Cursor cursor) {
+    long[] values = new long[cursor.getCount()];
+    for (int i = 0; cursor.moveToNext(); ++i) {
+      values[i] = cursor.getLong(0);
+    }
+    cursor.close();
+    return values;
+  }
+
+  private static String[] idArg(long id) {
+    return new String[] { Long.toString(id) };
+  }
+
+  private static String idIn(String column, long[] ids) {
+    StringBuilder where = new StringBuilder(column).append(" IN (");
+    for (int i = 0; i < ids.length; ++i) {
+      if (i > 0) {
+        where.append(',');
+      }
+      where.append(ids[i]);
+    }
+    return where.append(')').toString();
+  }
 }
@@ -15,13 +15,14 @@
 
 package io.github.carlorodriguez.alarmon;
 
+import android.content.ContentValues;
 import android.content.Context;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 
 public final class DbHelper extends SQLiteOpenHelper {
   public static final String DB_NAME = "alarmclock";
-  public static final int DB_VERSION = 1;
+  public static final int DB_VERSION = 4;
 
   public static final String DB_TABLE_ALARMS = "alarms";
   public static final String ALARMS_COL__ID = "_id";
@@ -44,6 +45,79 @@ public final class DbHelper extends SQLiteOpenHelper {
   public static final String SETTINGS_COL_PAUSE_SIGNALS = "pause_signal";
   public static final String SETTINGS_COL_NUMBER_SIGNALS = "number_signals";
 
+  public static final String DB_TABLE_SCHEMA_HISTORY = "schema_history";
+  public static final String SCHEMA_HISTORY_COL_VERSION = "version";
+  public static final String SCHEMA_HISTORY_COL_DESCRIPTION = "description";
+  public static final String SCHEMA_HISTORY_COL_APPLIED = "applied";
+
+  public static final String DB_TABLE_EVENTS = "events";
+  public static final String EVENTS_COL__ID = "_id";
+  public static final String EVENTS_COL_ALARM_ID = "alarm_id";
+  public static final String EVENTS_COL_TYPE = "type";
+  public static final String EVENTS_COL_TIME = "time";
+  public static final String EVENTS_COL_TARGET = "target";
+
+  /**
+   * One step of the schema, taking the database from version - 1 to version.
+   */
+  abstract static class Migration {
+    final int version;
+    final String description;
+
+    Migration(int version, String description) {
+      this.version = version;
+      this.description = description;
+    }
+
+    abstract void apply(SQLiteDatabase db);
+  }
+
+  // Every schema change after version 1, in order.  Never edit a released
+  // step; add a new one and bump DB_VERSION.
+  static final Migration[] MIGRATIONS = {
+    new Migration(2, "Index alarms by enabled and time") {
+      @Override
+      void apply(SQLiteDatabase db) {
+        db.execSQL("CREATE INDEX alarms_enabled_time ON " + DB_TABLE_ALARMS
+            + " (" + ALARMS_COL_ENABLED + ", " + ALARMS_COL_TIME + ")");
+        db.execSQL("CREATE INDEX alarms_time ON " + DB_TABLE_ALARMS
+            + " (" + ALARMS_COL_TIME + ")");
+      }
+    },
+    new Migration(3, "Delete settings with their alarm") {
+      @Override
+      void apply(SQLiteDatabase db) {
+        // The default settings row (DEFAULT_SETTINGS_ID) has no alarm, so a
+        // foreign key can't be declared on settings.id; a trigger gives the
+        // same ON DELETE CASCADE behavior.
+        db.execSQL("DELETE FROM " + DB_TABLE_SETTINGS
+            + " WHERE " + SETTINGS_COL_ID + " <> " + AlarmSettings.DEFAULT_SETTINGS_ID
+            + " AND " + SETTINGS_COL_ID + " NOT IN (SELECT " + ALARMS_COL__ID
+            + " FROM " + DB_TABLE_ALARMS + ")");
+        db.execSQL("CREATE TRIGGER alarms_delete_settings AFTER DELETE ON "
+            + DB_TABLE_ALARMS + " BEGIN DELETE FROM " + DB_TABLE_SETTINGS
+            + " WHERE " + SETTINGS_COL_ID + " = OLD." + ALARMS_COL__ID + "; END");
+      }
+    },
+    new Migration(4, "Create alarm event log") {
+      @Override
+      void apply(SQLiteDatabase db) {
+        // |(auto primary) | (alarm id) | (AlarmEventLog type) | (millis) | (millis) |
+        // |     _id       |  alarm_id  |         type         |   time   |  target  |
+        // target is the fire time the event relates to, or 0.
+        db.execSQL("CREATE TABLE " + DB_TABLE_EVENTS + " ("
+            + EVENTS_COL__ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+            + EVENTS_COL_ALARM_ID + " INTEGER, "
+            + EVENTS_COL_TYPE + " INTEGER, "
+            + EVENTS_COL_TIME + " INTEGER, "
+            + EVENTS_COL_TARGET + " INTEGER)");
+        db.execSQL("CREATE INDEX events_alarm_type_time ON " + DB_TABLE_EVENTS
+            + " (" + EVENTS_COL_ALARM_ID + ", " + EVENTS_COL_TYPE + ", "
+            + EVENTS_COL_TIME + ")");
+      }
+    },
+  };
+
   public DbHelper(Context context) {
     super(context, DB_NAME, null, DB_VERSION);
   }
@@ -76,9 +150,50 @@ public final class DbHelper extends SQLiteOpenHelper {
         + SETTINGS_COL_PAUSE_SIGNALS + " UNSIGNED INTEGER (1, 49),"
         + SETTINGS_COL_NUMBER_SIGNALS + " UNSIGNED INTEGER (1, 49),"
         + SETTINGS_COL_LENGTH_SIGNAL + " UNSIGNED INTEGER (1, 100))");
+
+    // New databases go through the same migrations as upgraded ones.
+    createSchemaHistory(db);
+    recordMigration(db, 1, "Create alarms and settings");
+    migrate(db, 1, DB_VERSION);
   }
 
   @Override
   public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+    if (oldVersion == 1) {
+      // Version 1 predates the history table.
+      createSchemaHistory(db);
+      recordMigration(db, 1, "Create alarms and settings");
+    }
+    migrate(db, oldVersion, newVersion);
+  }
+
+  /**
+   * Applies every migration after fromVersion up to toVersion.  Called
+   * inside the open helper's transaction, so a failing step leaves the
+   * database at fromVersion.
+   */
+  static void migrate(SQLiteDatabase db, int fromVersion, int toVersion) {
+    for (Migration migration : MIGRATIONS) {
+      if (migration.version > fromVersion && migration.version <= toVersion) {
+        migration.apply(db);
+        recordMigration(db, migration.version, migration.description);
+      }
+    }
+  }
+
+  private static void createSchemaHistory(SQLiteDatabase db) {
+    db.execSQL("CREATE TABLE " + DB_TABLE_SCHEMA_HISTORY + " ("
+        + SCHEMA_HISTORY_COL_VERSION + " INTEGER PRIMARY KEY, "
+        + SCHEMA_HISTORY_COL_DESCRIPTION + " TEXT, "
+        + SCHEMA_HISTORY_COL_APPLIED + " INTEGER)");
+  }
+
+  private static void recordMigration(SQLiteDatabase db, int version,
+      String description) {
+    ContentValues values = new ContentValues(3);
+    values.put(SCHEMA_HISTORY_COL_VERSION, version);
+    values.put(SCHEMA_HISTORY_COL_DESCRIPTION, description);
+    values.put(SCHEMA_HISTORY_COL_APPLIED, System.currentTimeMillis());
+    db.insertOrThrow(DB_TABLE_SCHEMA_HISTORY, null, values);
   }
 }
@@ -224,6 +224,7 @@ public class NotificationService extends Service {
     private LinkedList<Long> firingAlarms;
     private AlarmClockServiceBinder service;
     private DbAccessor db;
+    private AlarmRepository alarms;
     // Notification tools
     private NotificationManager manager;
     private PendingIntent notificationActivity;
@@ -247,6 +248,7 @@ public class NotificationService extends Service {
         service = new AlarmClockServiceBinder(getApplicationContext());
         service.bind();
         db = new DbAccessor(getApplicationContext());
+        alarms = new AlarmRepository(db);
 
         // Setup audio.
         MediaSingleton.INSTANCE.useContext(getApplicationContext());
@@ -265,7 +267,7 @@ public class NotificationService extends Service {
             @Override
             public void run() {
                 // Some sound should always be playing.
-                AlarmSettings settings = db.readAlarmSettings(0);
+                AlarmSettings settings = alarms.readAlarmSettings(0);
                 MediaSingleton.INSTANCE.ensureSound(getApplicationContext(), settings, volumeIncreaseCallback);
 
 
@@ -278,7 +280,7 @@ public class NotificationService extends Service {
             public void run() {
                 String notifyText;
                 try {
-                    AlarmInfo info = db.readAlarmInfo(currentAlarmId());
+                    AlarmInfo info = alarms.readAlarmInfo(currentAlarmId());
                     notifyText = (info == null || info.getName() == null) ? "" : info.getName();
                     if (notifyText.equals("") && info != null) {
                         notifyText = info.getTime().localizedString(getApplicationContext());
@@ -310,7 +312,7 @@ public class NotificationService extends Service {
             @Override
             public void run() {
                 try {
-                    acknowledgeCurrentNotification(0);
+                    finishCurrentNotification(0, AlarmEventLog.AUTO_CANCELLED);
                 } catch (NoAlarmsException e) {
                     return;
                 }
@@ -389,9 +391,18 @@ public class NotificationService extends Service {
     }
 
     public void acknowledgeCurrentNotification(int snoozeMinutes) throws NoAlarmsException {
+        // A snooze is logged by the alarm service along with its new time.
+        finishCurrentNotification(snoozeMinutes, snoozeMinutes <= 0
+                ? AlarmEventLog.ACKNOWLEDGED : AlarmEventLog.SNOOZED);
+    }
+
+    private void finishCurrentNotification(int snoozeMinutes, int event) throws NoAlarmsException {
         long alarmId = currentAlarmId();
         if (firingAlarms.contains(alarmId)) {
             firingAlarms.remove(alarmId);
+            if (event != AlarmEventLog.SNOOZED) {
+                AlarmEventLog.record(getApplicationContext(), alarmId, event);
+            }
             if (snoozeMinutes <= 0) {
                 service.acknowledgeAlarm(alarmId);
             } else {
@@ -417,8 +428,11 @@ public class NotificationService extends Service {
     }
 
     private void soundAlarm(long alarmId) {
-        // Begin notifying based on settings for this alaram.
-        AlarmSettings settings = db.readAlarmSettings(alarmId);
+        // Begin notifying based on settings for this alaram.  Reading the
+        // alarm with its settings also caches the info for the blinker.
+        AlarmDetails details = alarms.readAlarmDetails(alarmId);
+        AlarmSettings settings = details == null
+                ? alarms.readAlarmSettings(alarmId) : details.getSettings();
         final AudioManager audioManage = (AudioManager) getSystemService(Context.AUDIO_SERVICE);
 
 ////// REAl SET VOLUME
@@ -434,6 +448,7 @@ public class NotificationService extends Service {
         }
 
         MediaSingleton.INSTANCE.play(getApplicationContext(), settings.getTone(), settings);
+        AlarmEventLog.record(getApplicationContext(), alarmId, AlarmEventLog.SOUND_STARTED);
 
         // Start periodic events for handling this notification.
         handler.post(volumeIncreaseCallback);
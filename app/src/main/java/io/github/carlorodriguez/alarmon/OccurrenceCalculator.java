@@ -0,0 +1,139 @@
+/****************************************************************************
+ * Copyright 2010 kraigs.android@gmail.com
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ****************************************************************************/
+
+package io.github.carlorodriguez.alarmon;
+
+import java.util.TimeZone;
+
+/**
+ * Computes the next occurrence of an alarm time of day on a set of days of
+ * the week.  Instead of walking a Calendar forward one day at a time, the
+ * day of week mask is rotated so that bit 0 is the first candidate day and
+ * the number of days to wait is its number of trailing zeros.
+ *
+ * An instance captures the current time and time zone once, so a batch of
+ * alarms (every row of a cursor, for example) is computed against the same
+ * snapshot.
+ *
+ * Each candidate day is converted from wall clock time on its own, so a
+ * daylight saving transition between now and the alarm never shifts the
+ * time of day.  A time that doesn't exist on its day (inside a DST gap)
+ * moves forward by the length of the gap, and a time that occurs twice
+ * (inside a DST overlap) resolves to the earlier instant.
+ */
+public final class OccurrenceCalculator {
+  private static final long MILLIS_PER_DAY = 24 * 60 * 60 * 1000L;
+  // Offsets are sampled this far either side of a wall time to detect a
+  // transition close to it.
+  private static final long TRANSITION_WINDOW_MILLIS = MILLIS_PER_DAY;
+  private static final int DAYS_PER_WEEK = 7;
+  // 1970-01-01 was a Thursday.
+  private static final int EPOCH_DAY_OF_WEEK = Week.Day.THU.ordinal();
+
+  private final long nowMillis;
+  private final TimeZone zone;
+  // Local date of nowMillis, in days since 1970-01-01.
+  private final long today;
+  // Week.Day ordinal of today.
+  private final int todayOfWeek;
+
+  /**
+   * Snapshot of the current time and zone of TimeSource.get().
+   */
+  public OccurrenceCalculator() {
+    this(TimeSource.get());
+  }
+
+  public OccurrenceCalculator(TimeSource source) {
+    this(source.currentTimeMillis(), source.timeZone());
+  }
+
+  public OccurrenceCalculator(long nowMillis, TimeZone zone) {
+    this.nowMillis = nowMillis;
+    this.zone = zone;
+    today = floorDiv(nowMillis + zone.getOffset(nowMillis), MILLIS_PER_DAY);
+    todayOfWeek = (int) floorMod(today + EPOCH_DAY_OF_WEEK, DAYS_PER_WEEK);
+  }
+
+  public long nowMillis() {
+    return nowMillis;
+  }
+
+  public TimeZone zone() {
+    return zone;
+  }
+
+  /**
+   * @param secondsOfDay Seconds past midnight (0 to 86399).
+   * @param daysOfWeek Day of week mask (see Week.mask()), or 0 for an alarm
+   *                   that doesn't repeat.
+   * @return The first instant at or after now that matches the time of day
+   * and one of the days.  A time of day which occurs twice only matches its
+   * earlier instant, so an alarm doesn't fire twice when clocks go back.
+   */
+  public long nextOccurrence(int secondsOfDay, int daysOfWeek) {
+    // If this time of day has already occurred today, start tomorrow.
+    int days = wallToMillis(today, secondsOfDay) < nowMillis ? 1 : 0;
+
+    if (daysOfWeek != 0) {
+      int first = (todayOfWeek + days) % DAYS_PER_WEEK;
+      int rotated = ((daysOfWeek >>> first)
+          | (daysOfWeek << (DAYS_PER_WEEK - first))) & Week.ALL_DAYS_MASK;
+      days += Integer.numberOfTrailingZeros(rotated);
+    }
+
+    return wallToMillis(today + days, secondsOfDay);
+  }
+
+  private long wallToMillis(long localDay, int secondsOfDay) {
+    long wall = localDay * MILLIS_PER_DAY + secondsOfDay * 1000L;
+    long standard = wall - zone.getRawOffset();
+    int offsetBefore = zone.getOffset(standard - TRANSITION_WINDOW_MILLIS);
+    int offsetAfter = zone.getOffset(standard + TRANSITION_WINDOW_MILLIS);
+    if (offsetBefore == offsetAfter) {
+      return wall - offsetBefore;
+    }
+
+    // A transition is nearby.  Each offset gives a candidate instant which
+    // is only valid if the zone really has that offset at that instant.
+    long before = wall - offsetBefore;
+    long after = wall - offsetAfter;
+    boolean beforeValid = zone.getOffset(before) == offsetBefore;
+    boolean afterValid = zone.getOffset(after) == offsetAfter;
+    if (beforeValid && afterValid) {
+      // Overlap.
+      return Math.min(before, after);
+    } else if (afterValid) {
+      return after;
+    } else if (beforeValid) {
+      return before;
+    }
+    // Gap: keep the offset from before the transition, which lands the
+    // same distance past the gap as the wall time was into it.
+    return before;
+  }
+
+  private static long floorDiv(long x, long y) {
+    long q = x / y;
+    if ((x % y != 0) && ((x ^ y) < 0)) {
+      --q;
+    }
+    return q;
+  }
+
+  private static long floorMod(long x, long y) {
+    return x - floorDiv(x, y) * y;
+  }
+}
@@ -0,0 +1,251 @@
+/****************************************************************************
+ * Copyright 2010 kraigs.android@gmail.com
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ****************************************************************************/
+
+package io.github.carlorodriguez.alarmon;
+
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.TimeZone;
+
+/**
+ * Projects a set of alarms forward in time: every firing of every alarm,
+ * in fire time order.  Each alarm contributes a stream that starts at its
+ * pending fire time and continues on its days of the week; the streams are
+ * merged through an AlarmQueue, so every emitted occurrence costs O(log n)
+ * for n alarms.
+ *
+ * The first CACHE_LIMIT occurrences are kept once computed and replayed by
+ * later iterators.  Any change to the alarms (see invalidate()) drops the
+ * cache and fails the iterators that are still open.
+ */
+public final class OccurrenceProjection {
+  static final int CACHE_LIMIT = 256;
+
+  /**
+   * A single firing of an alarm.
+   */
+  public static final class Occurrence {
+    private final long alarmId;
+    private final long fireMillis;
+
+    Occurrence(long alarmId, long fireMillis) {
+      this.alarmId = alarmId;
+      this.fireMillis = fireMillis;
+    }
+
+    public long alarmId() {
+      return alarmId;
+    }
+
+    public long fireMillis() {
+      return fireMillis;
+    }
+  }
+
+  // Alarms being projected, or null until the next reset().
+  private long[] sourceIds;
+  private AlarmTime[] sourceTimes;
+  private String zoneId;
+  private int version;
+
+  // Occurrences computed so far from the start of every stream.
+  private long[] cacheIds;
+  private long[] cacheMillis;
+  private int cacheSize;
+  // True once every stream has ended within the cache.
+  private boolean cacheComplete;
+
+  public OccurrenceProjection() {
+    cacheIds = new long[CACHE_LIMIT];
+    cacheMillis = new long[CACHE_LIMIT];
+  }
+
+  /**
+   * @return false if the alarms changed since the last reset(), or the
+   * time zone is no longer the one the cache was computed in.
+   */
+  public boolean isValid() {
+    return sourceIds != null && TimeSource.get().timeZone().getID().equals(zoneId);
+  }
+
+  public void invalidate() {
+    sourceIds = null;
+    sourceTimes = null;
+    cacheSize = 0;
+    cacheComplete = false;
+    ++version;
+  }
+
+  /**
+   * Replaces the alarms being projected.
+   * @param alarmIds Alarm ids
+   * @param times The pending time of each alarm.
+   */
+  public void reset(long[] alarmIds, AlarmTime[] times) {
+    invalidate();
+    sourceIds = alarmIds.clone();
+    sourceTimes = times.clone();
+    zoneId = TimeSource.get().timeZone().getID();
+  }
+
+  /**
+   * @param fromMillis Start of the window, inclusive.
+   * @param untilMillis End of the window, exclusive.
+   * @return A lazy iterator over every occurrence in the window, in fire
+   * time order (ties by alarm id).
+   */
+  public Iterator<Occurrence> iterator(long fromMillis, long untilMillis) {
+    if (sourceIds == null) {
+      throw new IllegalStateException("No alarms to project; call reset()");
+    }
+    return new OccurrenceIterator(fromMillis, untilMillis);
+  }
+
+  // Fills the cache from the start of every stream.
+  private void fillCache() {
+    AlarmQueue<AlarmTime> queue = seed(Long.MIN_VALUE, Long.MIN_VALUE);
+    TimeZone zone = TimeSource.get().timeZone();
+    while (cacheSize < CACHE_LIMIT && !queue.isEmpty()) {
+      cacheIds[cacheSize] = queue.peekId();
+      cacheMillis[cacheSize] = queue.peekKey();
+      ++cacheSize;
+      advance(queue, zone);
+    }
+    cacheComplete = queue.isEmpty();
+  }
+
+  // Queues the first occurrence of every stream which is ordered after
+  // (afterMillis, afterId).
+  private AlarmQueue<AlarmTime> seed(long afterMillis, long afterId) {
+    AlarmQueue<AlarmTime> queue = new AlarmQueue<>();
+    TimeZone zone = TimeSource.get().timeZone();
+    for (int i = 0; i < sourceIds.length; ++i) {
+      long alarmId = sourceIds[i];
+      AlarmTime time = sourceTimes[i];
+      long millis = time.fireMillis();
+      if (!after(millis, alarmId, afterMillis, afterId)) {
+        if (!time.repeats()) {
+          continue;
+        }
+        millis = new OccurrenceCalculator(afterMillis, zone).nextOccurrence(
+            time.secondsOfDay(), time.daysOfWeekMask());
+        if (!after(millis, alarmId, afterMillis, afterId)) {
+          millis = new OccurrenceCalculator(afterMillis + 1, zone)
+              .nextOccurrence(time.secondsOfDay(), time.daysOfWeekMask());
+        }
+      }
+      queue.put(alarmId, millis, time);
+    }
+    return queue;
+  }
+
+  // Replaces the head of the queue with the next occurrence of its stream.
+  private static void advance(AlarmQueue<AlarmTime> queue, TimeZone zone) {
+    long alarmId = queue.peekId();
+    AlarmTime time = queue.peekValue();
+    if (!time.repeats()) {
+      queue.remove(alarmId);
+      return;
+    }
+    long next = new OccurrenceCalculator(queue.peekKey() + 1, zone)
+        .nextOccurrence(time.secondsOfDay(), time.daysOfWeekMask());
+    queue.put(alarmId, next, time);
+  }
+
+  private static boolean after(long millis, long alarmId, long afterMillis,
+      long afterId) {
+    return millis > afterMillis || (millis == afterMillis && alarmId > afterId);
+  }
+
+  private final class OccurrenceIterator implements Iterator<Occurrence> {
+    private final long untilMillis;
+    private final int expectedVersion;
+    private final TimeZone zone;
+    // Position in the cache, until it runs out.
+    private int cacheIndex;
+    // Streams past the end of the cache, created on demand.
+    private AlarmQueue<AlarmTime> queue;
+    private final long fromMillis;
+
+    OccurrenceIterator(long fromMillis, long untilMillis) {
+      this.fromMillis = fromMillis;
+      this.untilMillis = untilMillis;
+      expectedVersion = version;
+      zone = TimeSource.get().timeZone();
+      if (cacheSize == 0 && !cacheComplete) {
+        fillCache();
+      }
+      cacheIndex = firstCached(fromMillis);
+    }
+
+    @Override
+    public boolean hasNext() {
+      if (version != expectedVersion) {
+        throw new ConcurrentModificationException();
+      }
+      if (cacheIndex < cacheSize) {
+        return cacheMillis[cacheIndex] < untilMillis;
+      }
+      if (cacheComplete) {
+        return false;
+      }
+      if (queue == null) {
+        // Resume after the last cached occurrence, or at the start of the
+        // window if that is later.
+        long lastMillis = cacheMillis[cacheSize - 1];
+        queue = fromMillis > lastMillis
+            ? seed(fromMillis - 1, Long.MAX_VALUE)
+            : seed(lastMillis, cacheIds[cacheSize - 1]);
+      }
+      return !queue.isEmpty() && queue.peekKey() < untilMillis;
+    }
+
+    @Override
+    public Occurrence next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      if (cacheIndex < cacheSize) {
+        Occurrence occurrence =
+            new Occurrence(cacheIds[cacheIndex], cacheMillis[cacheIndex]);
+        ++cacheIndex;
+        return occurrence;
+      }
+      Occurrence occurrence = new Occurrence(queue.peekId(), queue.peekKey());
+      advance(queue, zone);
+      return occurrence;
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+
+    // Index of the first cached occurrence at or after fromMillis.
+    private int firstCached(long millis) {
+      int index = Arrays.binarySearch(cacheMillis, 0, cacheSize, millis);
+      if (index < 0) {
+        return -index - 1;
+      }
+      // Several alarms may share this time; back up to the first of them.
+      while (index > 0 && cacheMillis[index - 1] == millis) {
+        --index;
+      }
+      return index;
+    }
+  }
+}
@@ -0,0 +1,160 @@
+/****************************************************************************
+ * Copyright 2010 kraigs.android@gmail.com
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ****************************************************************************/
+
+package io.github.carlorodriguez.alarmon;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/**
+ * Keeps a copy of the pending alarms in a memory-mapped file, so that a
+ * restarted AlarmClockService can rebuild its PendingAlarmList without
+ * reading the database.  Every write goes straight to the mapped pages, so
+ * it survives the process being killed; a torn or foreign file fails the
+ * checksum and load() returns null.
+ *
+ * Layout, big endian: magic, version, entry count, CRC32 of the entries,
+ * then per entry the alarm id, fire time in epoch millis, seconds past
+ * midnight and day of week mask.
+ */
+public final class PendingAlarmFile {
+  public static final String FILE_NAME = "pending_alarms";
+
+  private static final int MAGIC = 0x414c524d;
+  static final int VERSION = 1;
+  private static final int HEADER_BYTES = 4 + 4 + 4 + 8;
+  private static final int ENTRY_BYTES = 8 + 8 + 4 + 4;
+  private static final int INITIAL_CAPACITY = 16;
+
+  private final File file;
+  private RandomAccessFile access;
+  private MappedByteBuffer buffer;
+  private final CRC32 crc = new CRC32();
+
+  public PendingAlarmFile(File file) {
+    this.file = file;
+  }
+
+  /**
+   * @return The pending alarms last written, or null if there is no file
+   * or it doesn't check out.
+   */
+  public PendingAlarmSnapshot load() {
+    if (!file.exists()) {
+      return null;
+    }
+    try {
+      map(0);
+    } catch (IOException e) {
+      e.printStackTrace();
+      return null;
+    }
+
+    if (buffer.capacity() < HEADER_BYTES
+        || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+      return null;
+    }
+    int count = buffer.getInt(8);
+    if (count < 0 || count > (buffer.capacity() - HEADER_BYTES) / ENTRY_BYTES) {
+      return null;
+    }
+    byte[] entries = new byte[count * ENTRY_BYTES];
+    ByteBuffer view = buffer.duplicate();
+    view.position(HEADER_BYTES);
+    view.get(entries);
+    crc.reset();
+    crc.update(entries);
+    if (crc.getValue() != buffer.getLong(12)) {
+      return null;
+    }
+
+    ByteBuffer in = ByteBuffer.wrap(entries);
+    long[] alarmIds = new long[count];
+    AlarmTime[] times = new AlarmTime[count];
+    for (int i = 0; i < count; ++i) {
+      alarmIds[i] = in.getLong();
+      long fireMillis = in.getLong();
+      int secondsOfDay = in.getInt();
+      int daysOfWeek = in.getInt();
+      times[i] = new AlarmTime(fireMillis, secondsOfDay, daysOfWeek);
+    }
+    return new PendingAlarmSnapshot(alarmIds, times, 0);
+  }
+
+  /**
+   * Replaces the contents of the file.  The header is written last, so an
+   * interrupted write leaves a checksum that doesn't match.
+   */
+  public void write(PendingAlarmSnapshot snapshot) throws IOException {
+    long[] alarmIds = snapshot.alarmIds();
+    AlarmTime[] times = snapshot.times();
+    ByteBuffer out = ByteBuffer.allocate(alarmIds.length * ENTRY_BYTES);
+    for (int i = 0; i < alarmIds.length; ++i) {
+      out.putLong(alarmIds[i]);
+      out.putLong(times[i].fireMillis());
+      out.putInt(times[i].secondsOfDay());
+      out.putInt(times[i].daysOfWeekMask());
+    }
+    byte[] entries = out.array();
+    crc.reset();
+    crc.update(entries);
+
+    map(HEADER_BYTES + entries.length);
+    buffer.putInt(8, -1);
+    ByteBuffer view = buffer.duplicate();
+    view.position(HEADER_BYTES);
+    view.put(entries);
+    buffer.putLong(12, crc.getValue());
+    buffer.putInt(4, VERSION);
+    buffer.putInt(0, MAGIC);
+    buffer.putInt(8, alarmIds.length);
+  }
+
+  public void close() {
+    buffer = null;
+    if (access != null) {
+      try {
+        access.close();
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+      access = null;
+    }
+  }
+
+  // Maps the file, growing it to hold at least size bytes.
+  private void map(int size) throws IOException {
+    if (buffer != null && buffer.capacity() >= size) {
+      return;
+    }
+    if (access == null) {
+      access = new RandomAccessFile(file, "rw");
+    }
+    long length = access.length();
+    if (length < size) {
+      length = HEADER_BYTES + ENTRY_BYTES * (long) INITIAL_CAPACITY;
+      while (length < size) {
+        length *= 2;
+      }
+      access.setLength(length);
+    }
+    buffer = access.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, length);
+  }
+}
@@ -15,155 +15,323 @@
 
 package io.github.carlorodriguez.alarmon;
 
-import java.util.TreeMap;
+import java.util.Arrays;
+import java.util.HashSet;
 
-import android.app.AlarmManager;
-import android.app.PendingIntent;
 import android.content.Context;
-import android.content.Intent;
-import android.os.Build;
 
 /**
  * This container holds a list of all currently scheduled alarms.
- * Adding/removing alarms to this container schedules/unschedules PendingIntents
- * with the android AlarmManager service.
+ * Adding/removing alarms to this container schedules/unschedules wake ups
+ * with an AlarmSink, normally the android AlarmManager service.
  */
 public final class PendingAlarmList {
-  // Maps alarmId -> alarm.
-  private TreeMap<Long, PendingAlarm> pendingAlarms;
-  // Maps alarm time -> alarmId.
-  private TreeMap<AlarmTime, Long> alarmTimes;
-  private AlarmManager alarmManager;
-  private Context context;
+  /**
+   * How pending alarms are registered with the sink.  PER_ALARM registers
+   * one wake up for every pending alarm.  NEXT_DUE only
+   * registers the earliest pending alarm; when it fires, ReceiverAlarm asks
+   * AlarmClockService to dispatch every alarm that is due (see takeDue())
+   * and the list re-arms itself for the next one.
+   */
+  public enum Registration {
+    PER_ALARM,
+    NEXT_DUE
+  }
+
+  // Alarms ordered by fire time and indexed by alarmId.
+  private AlarmQueue<AlarmTime> pendingAlarms;
+  // Alarms taken by takeDue() which haven't been put back or removed yet,
+  // i.e. which are still ringing.
+  private HashSet<Long> dispatchedAlarms;
+  private AlarmSink sink;
+  private Registration registration;
+  // The single registered wake up in NEXT_DUE mode.
+  private long armedAlarmId;
+  private long armedMillis;
+  // Number of live AlarmManager registrations and total calls made to set one.
+  private int registrationCount;
+  private long registrationCalls;
+  // While positive, re-arming is deferred until endBatch().
+  private int batchDepth;
+  // Incremented on every change to the pending alarms.
+  private int changeCount;
 
   public PendingAlarmList(Context context) {
-    pendingAlarms = new TreeMap<>();
-    alarmTimes = new TreeMap<>();
-    alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
-    this.context = context;
+    this(context, Registration.PER_ALARM);
+  }
+
+  public PendingAlarmList(Context context, Registration registration) {
+    this(new AlarmManagerSink(context), registration);
+  }
+
+  public PendingAlarmList(AlarmSink sink, Registration registration) {
+    pendingAlarms = new AlarmQueue<>();
+    dispatchedAlarms = new HashSet<>();
+    this.sink = sink;
+    this.registration = registration;
+    armedAlarmId = AlarmClockServiceBinder.NO_ALARM_ID;
   }
 
   public int size() {
-    if (pendingAlarms.size() != alarmTimes.size()) {
-      throw new IllegalStateException("Inconsistent pending alarms: "
-          + pendingAlarms.size() + " vs " + alarmTimes.size());
-    }
     return pendingAlarms.size();
   }
 
+  /**
+   * @return The number of alarms taken by takeDue() which are waiting to
+   * be acknowledged, snoozed or dismissed.
+   */
+  public int dispatchedCount() {
+    return dispatchedAlarms.size();
+  }
+
+  /**
+   * @return True if no alarm is pending or waiting to be acknowledged, so
+   * that the service can stop.
+   */
+  public boolean isIdle() {
+    return pendingAlarms.isEmpty() && dispatchedAlarms.isEmpty();
+  }
+
+  public Registration registration() {
+    return registration;
+  }
+
+  /**
+   * @return The number of wake ups currently registered with the sink.  In
+   * NEXT_DUE mode this is never more than one.
+   */
+  public int registrationCount() {
+    return registrationCount;
+  }
+
+  /**
+   * @return The total number of times a wake up was set with the sink by
+   * this list.
+   */
+  public long registrationCalls() {
+    return registrationCalls;
+  }
+
   public void put(long alarmId, AlarmTime time) {
+    long fireMillis = time.fireMillis();
+    dispatchedAlarms.remove(alarmId);
+
+    if (registration == Registration.NEXT_DUE) {
+      pendingAlarms.put(alarmId, fireMillis, time);
+      changed();
+      rearm();
+      return;
+    }
+
     // Remove this alarm if it exists already.
     remove(alarmId);
 
-    // Intents are considered equal if they have the same action, data, type,
-    // class, and categories.  In order to schedule multiple alarms, every
-    // pending intent must be different.  This means that we must encode
-    // the alarm id in the data section of the intent rather than in
-    // the extras bundle.
-    Intent notifyIntent = new Intent(context, ReceiverAlarm.class);
-    notifyIntent.setData(AlarmUtil.alarmIdToUri(alarmId));
-    PendingIntent scheduleIntent =
-      PendingIntent.getBroadcast(context, 0, notifyIntent, 0);
-
-    // Schedule the alarm with the AlarmManager.
-    // Previous instances of this intent will be overwritten in
-    // the alarm manager.
-
-      if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
-          Intent intent = new Intent(context, ActivityAlarmClock.class);
-
-          PendingIntent showIntent = PendingIntent.getActivity(context, 0,
-                  intent, PendingIntent.FLAG_UPDATE_CURRENT);
-
-          AlarmManager.AlarmClockInfo alarmClockInfo = new AlarmManager.
-                  AlarmClockInfo(time.calendar().getTimeInMillis(),
-                  showIntent
-                  );
-
-          alarmManager.setAlarmClock(alarmClockInfo, scheduleIntent);
-      } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
-          alarmManager.setExact(AlarmManager.RTC_WAKEUP,
-                  time.calendar().getTimeInMillis(), scheduleIntent);
-      } else {
-          alarmManager.set(AlarmManager.RTC_WAKEUP,
-                  time.calendar().getTimeInMillis(), scheduleIntent);
-      }
+    register(alarmId, fireMillis, false);
 
     // Keep track of all scheduled alarms.
-    pendingAlarms.put(alarmId, new PendingAlarm(time, scheduleIntent));
-    alarmTimes.put(time, alarmId);
+    pendingAlarms.put(alarmId, fireMillis, time);
+    changed();
+  }
 
-    if (pendingAlarms.size() != alarmTimes.size()) {
-      throw new IllegalStateException("Inconsistent pending alarms: "
-          + pendingAlarms.size() + " vs " + alarmTimes.size());
+  /**
+   * Schedules several alarms at once.  In NEXT_DUE mode the AlarmManager is
+   * re-armed once for the whole batch.
+   * @param alarmIds Alarm ids
+   * @param times Alarm times, one per id
+   */
+  public void putAll(long[] alarmIds, AlarmTime[] times) {
+    beginBatch();
+    try {
+      for (int i = 0; i < alarmIds.length; ++i) {
+        put(alarmIds[i], times[i]);
+      }
+    } finally {
+      endBatch();
     }
   }
 
-  public boolean remove(long alarmId) {
-    PendingAlarm alarm = pendingAlarms.remove(alarmId);
-    if (alarm == null) {
-      return false;
+  /**
+   * Schedules alarms saved by an earlier process at their saved times, so
+   * that alarms which came due while no process was running are still
+   * registered with a past fire time and delivered by the sink right away.
+   * Alarms which were due before staleMillis are left out, so that the
+   * caller can reschedule them from the database.
+   * @param alarmIds Saved alarm ids
+   * @param times Saved alarm times, one per id
+   * @param staleMillis Alarms due before this time are not restored.
+   * @return The ids of the alarms which were left out.
+   */
+  public long[] restore(long[] alarmIds, AlarmTime[] times, long staleMillis) {
+    long[] stale = new long[alarmIds.length];
+    int count = 0;
+    beginBatch();
+    try {
+      for (int i = 0; i < alarmIds.length; ++i) {
+        if (times[i].fireMillis() < staleMillis) {
+          stale[count++] = alarmIds[i];
+        } else {
+          put(alarmIds[i], times[i]);
+        }
+      }
+    } finally {
+      endBatch();
     }
-    Long expectedAlarmId = alarmTimes.remove(alarm.time());
-    alarmManager.cancel(alarm.pendingIntent());
-    alarm.pendingIntent().cancel();
+    return Arrays.copyOf(stale, count);
+  }
 
-    if (expectedAlarmId != alarmId) {
-      throw new IllegalStateException("Internal inconsistency in PendingAlarmList");
-    }
+  /**
+   * Defers re-arming the AlarmManager until the matching endBatch(), so
+   * that a sequence of put() and remove() calls in NEXT_DUE mode results in
+   * at most one registration.  Batches may be nested.
+   */
+  public void beginBatch() {
+    ++batchDepth;
+  }
 
-    if (pendingAlarms.size() != alarmTimes.size()) {
-      throw new IllegalStateException("Inconsistent pending alarms: "
-          + pendingAlarms.size() + " vs " + alarmTimes.size());
+  public void endBatch() {
+    if (batchDepth == 0) {
+      throw new IllegalStateException("endBatch() without beginBatch()");
+    }
+    if (--batchDepth == 0 && registration == Registration.NEXT_DUE) {
+      rearm();
     }
+  }
 
+  public boolean remove(long alarmId) {
+    boolean dispatched = dispatchedAlarms.remove(alarmId);
+    if (!pendingAlarms.remove(alarmId)) {
+      return dispatched;
+    }
+    changed();
+    if (registration == Registration.NEXT_DUE) {
+      rearm();
+    } else {
+      unregister(alarmId);
+    }
     return true;
   }
 
-  public AlarmTime nextAlarmTime() {
-    if (alarmTimes.size() == 0) {
-      return null;
+  /**
+   * Removes every alarm which is due at or before the given time and
+   * re-arms the AlarmManager for the next pending alarm.  The removed
+   * alarms count as dispatched until they are put back or removed, so the
+   * list isn't idle while they ring.
+   * @param untilMillis End of the due window in epoch millis.
+   * @return The ids of the due alarms, in fire time order.
+   */
+  public long[] takeDue(long untilMillis) {
+    long[] due = new long[4];
+    int count = 0;
+    while (!pendingAlarms.isEmpty() && pendingAlarms.peekKey() <= untilMillis) {
+      long alarmId = pendingAlarms.peekId();
+      pendingAlarms.remove(alarmId);
+      changed();
+      if (registration == Registration.PER_ALARM) {
+        unregister(alarmId);
+      }
+      if (count == due.length) {
+        due = Arrays.copyOf(due, count * 2);
+      }
+      due[count++] = alarmId;
+      dispatchedAlarms.add(alarmId);
     }
-    return alarmTimes.firstKey();
+    if (registration == Registration.NEXT_DUE) {
+      rearm();
+    }
+    return Arrays.copyOf(due, count);
   }
 
-    public long nextAlarmId() {
-        if (alarmTimes.size() == 0) {
-            return AlarmClockServiceBinder.NO_ALARM_ID;
-        }
-        return alarmTimes.get(alarmTimes.firstKey());
+  // Makes sure that exactly the head of the queue is registered with the
+  // sink.
+  private void rearm() {
+    if (batchDepth > 0) {
+      return;
     }
+    long nextAlarmId = pendingAlarms.peekId();
+    long nextMillis = pendingAlarms.peekKey();
+    boolean armed = armedAlarmId != AlarmClockServiceBinder.NO_ALARM_ID;
+    if (armed && nextAlarmId == armedAlarmId && nextMillis == armedMillis) {
+      return;
+    }
+
+    // Re-registering the same alarm replaces the previous registration, so
+    // only cancel when the head of the queue is a different alarm.
+    if (armed && nextAlarmId != armedAlarmId) {
+      unregister(armedAlarmId);
+      armedAlarmId = AlarmClockServiceBinder.NO_ALARM_ID;
+      armed = false;
+    }
+
+    if (pendingAlarms.isEmpty()) {
+      return;
+    }
+
+    if (armed) {
+      // Already counted as a live registration.
+      --registrationCount;
+    }
+    register(nextAlarmId, nextMillis, true);
+    armedAlarmId = nextAlarmId;
+    armedMillis = nextMillis;
+  }
+
+  private void register(long alarmId, long fireMillis, boolean dispatchDue) {
+    sink.set(alarmId, fireMillis, dispatchDue);
+    ++registrationCount;
+    ++registrationCalls;
+  }
+
+  private void unregister(long alarmId) {
+    sink.cancel(alarmId);
+    --registrationCount;
+  }
+
+  public AlarmTime nextAlarmTime() {
+    return pendingAlarms.peekValue();
+  }
+
+  public long nextAlarmId() {
+    return pendingAlarms.peekId();
+  }
 
   public AlarmTime pendingTime(long alarmId) {
-    PendingAlarm alarm = pendingAlarms.get(alarmId);
-    return alarm == null ? null : alarm.time();
+    return pendingAlarms.get(alarmId);
   }
 
   public AlarmTime[] pendingTimes() {
-    AlarmTime[] times = new AlarmTime[alarmTimes.size()];
-    alarmTimes.keySet().toArray(times);
+    long[] alarmIds = pendingAlarms.sortedIds();
+    AlarmTime[] times = new AlarmTime[alarmIds.length];
+    for (int i = 0; i < alarmIds.length; ++i) {
+      times[i] = pendingAlarms.get(alarmIds[i]);
+    }
     return times;
   }
 
-  public Long[] pendingAlarms() {
-    Long[] alarmIds = new Long[pendingAlarms.size()];
-    pendingAlarms.keySet().toArray(alarmIds);
-    return alarmIds;
+  public long[] pendingAlarms() {
+    return pendingAlarms.ids();
   }
 
-  private class PendingAlarm {
-    private AlarmTime time;
-    private PendingIntent pendingIntent;
+  /**
+   * @return The number of changes made to this list so far, so that a
+   * caller can tell whether a snapshot() it holds is out of date.
+   */
+  public int changeCount() {
+    return changeCount;
+  }
 
-    PendingAlarm(AlarmTime time, PendingIntent pendingIntent) {
-      this.time = time;
-      this.pendingIntent = pendingIntent;
-    }
-    public AlarmTime time() {
-      return time;
-    }
-    public PendingIntent pendingIntent() {
-      return pendingIntent;
+  /**
+   * @return An immutable copy of the pending alarms.
+   */
+  public PendingAlarmSnapshot snapshot() {
+    long[] alarmIds = pendingAlarms.sortedIds();
+    AlarmTime[] times = new AlarmTime[alarmIds.length];
+    for (int i = 0; i < alarmIds.length; ++i) {
+      times[i] = pendingAlarms.get(alarmIds[i]);
     }
+    return new PendingAlarmSnapshot(alarmIds, times, registrationCount);
+  }
+
+  private void changed() {
+    ++changeCount;
   }
 }
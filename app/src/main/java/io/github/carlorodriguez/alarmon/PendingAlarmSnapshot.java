@@ -0,0 +1,155 @@
+/****************************************************************************
+ * Copyright 2010 kraigs.android@gmail.com
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ****************************************************************************/
+
+package io.github.carlorodriguez.alarmon;
+
+import java.util.Arrays;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+/**
+ * An immutable copy of the pending alarms at one point in time.
+ * AlarmClockService publishes a new snapshot after every change to its
+ * PendingAlarmList, so readers on any thread see a consistent view without
+ * taking a lock.
+ *
+ * The class is Parcelable so that a client can fetch every pending alarm
+ * with one call to the AlarmClockService instead of one call per alarm.
+ */
+public final class PendingAlarmSnapshot implements Parcelable {
+  public static final PendingAlarmSnapshot EMPTY =
+      new PendingAlarmSnapshot(new long[0], new AlarmTime[0], 0);
+  // Width of the day of week mask in a packed time of day.
+  private static final int DAYS_BITS = 7;
+
+  // Ordered by fire time.
+  private final long[] alarmIds;
+  private final AlarmTime[] times;
+  // Alarm ids in ascending order, and the fire time position of each.
+  private final long[] sortedIds;
+  private final int[] positions;
+  private final int registrationCount;
+
+  PendingAlarmSnapshot(long[] alarmIds, AlarmTime[] times,
+      int registrationCount) {
+    this.alarmIds = alarmIds;
+    this.times = times;
+    this.registrationCount = registrationCount;
+
+    int size = alarmIds.length;
+    sortedIds = alarmIds.clone();
+    Arrays.sort(sortedIds);
+    positions = new int[size];
+    for (int i = 0; i < size; ++i) {
+      positions[Arrays.binarySearch(sortedIds, alarmIds[i])] = i;
+    }
+  }
+
+  public int size() {
+    return alarmIds.length;
+  }
+
+  public int registrationCount() {
+    return registrationCount;
+  }
+
+  /**
+   * @return The pending alarm ids, ordered by fire time.
+   */
+  public long[] alarmIds() {
+    return alarmIds.clone();
+  }
+
+  /**
+   * @return The pending alarm times, ordered by fire time.
+   */
+  public AlarmTime[] times() {
+    return times.clone();
+  }
+
+  /**
+   * @param alarmId Alarm id
+   * @return The time this alarm is pending for, or null.
+   */
+  public AlarmTime time(long alarmId) {
+    int index = Arrays.binarySearch(sortedIds, alarmId);
+    return index < 0 ? null : times[positions[index]];
+  }
+
+  public long nextAlarmId() {
+    return alarmIds.length == 0
+        ? AlarmClockServiceBinder.NO_ALARM_ID : alarmIds[0];
+  }
+
+  public AlarmTime nextAlarmTime() {
+    return times.length == 0 ? null : times[0];
+  }
+
+  // Parcel format: alarm count, registration count, then one array each of
+  // alarm ids, fire times and time of day packed with the day of week mask,
+  // all ordered by fire time.
+  private static PendingAlarmSnapshot read(Parcel source) {
+    int size = source.readInt();
+    int registrationCount = source.readInt();
+    long[] alarmIds = new long[size];
+    long[] fireMillis = new long[size];
+    int[] timesOfDay = new int[size];
+    source.readLongArray(alarmIds);
+    source.readLongArray(fireMillis);
+    source.readIntArray(timesOfDay);
+
+    AlarmTime[] times = new AlarmTime[size];
+    for (int i = 0; i < size; ++i) {
+      times[i] = new AlarmTime(fireMillis[i], timesOfDay[i] >>> DAYS_BITS,
+          timesOfDay[i] & Week.ALL_DAYS_MASK);
+    }
+    return new PendingAlarmSnapshot(alarmIds, times, registrationCount);
+  }
+
+  @Override
+  public void writeToParcel(Parcel dest, int flags) {
+    int size = alarmIds.length;
+    long[] fireMillis = new long[size];
+    int[] timesOfDay = new int[size];
+    for (int i = 0; i < size; ++i) {
+      fireMillis[i] = times[i].fireMillis();
+      timesOfDay[i] = times[i].secondsOfDay() << DAYS_BITS
+          | times[i].daysOfWeekMask();
+    }
+    dest.writeInt(size);
+    dest.writeInt(registrationCount);
+    dest.writeLongArray(alarmIds);
+    dest.writeLongArray(fireMillis);
+    dest.writeIntArray(timesOfDay);
+  }
+
+  public static final Parcelable.Creator<PendingAlarmSnapshot> CREATOR =
+    new Parcelable.Creator<PendingAlarmSnapshot>() {
+      @Override
+      public PendingAlarmSnapshot createFromParcel(Parcel source) {
+        return read(source);
+      }
+      @Override
+      public PendingAlarmSnapshot[] newArray(int size) {
+        return new PendingAlarmSnapshot[size];
+      }
+    };
+
+  @Override
+  public int describeContents() {
+    return 0;
+  }
+}
@@ -7,10 +7,19 @@ import android.net.Uri;
 
 
 public class ReceiverAlarm extends BroadcastReceiver {
+  // Set on the single intent registered by a PendingAlarmList in NEXT_DUE
+  // mode.  Every alarm due in this window is then dispatched by the
+  // AlarmClockService rather than just the alarm in the intent data.
+  public static final String EXTRA_DISPATCH_DUE = "dispatch_due";
+  // The fire time the intent was registered for, in epoch millis.
+  public static final String EXTRA_FIRE_MILLIS = "fire_millis";
+
   @Override
   public void onReceive(Context context, Intent recvIntent) {
     Uri alarmUri = recvIntent.getData();
     long alarmId = AlarmUtil.alarmUriToId(alarmUri);
+    AlarmEventLog.record(context, alarmId, AlarmEventLog.FIRED,
+        recvIntent.getLongExtra(EXTRA_FIRE_MILLIS, 0));
 
     try {
       WakeLock.acquire(context, alarmId);
@@ -20,6 +29,16 @@ public class ReceiverAlarm extends BroadcastReceiver {
       }
     }
 
+    if (recvIntent.getBooleanExtra(EXTRA_DISPATCH_DUE, false)) {
+      Intent dispatch = new Intent(context, AlarmClockService.class);
+      dispatch.putExtra(AlarmClockService.COMMAND_EXTRA,
+          AlarmClockService.COMMAND_DISPATCH_DUE);
+      dispatch.setData(alarmUri);
+
+      context.startService(dispatch);
+      return;
+    }
+
     Intent notifyService = new Intent(context, NotificationService.class);
     notifyService.setData(alarmUri);
 
@@ -0,0 +1,64 @@
+/****************************************************************************
+ * Copyright 2010 kraigs.android@gmail.com
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ****************************************************************************/
+
+package io.github.carlorodriguez.alarmon;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+
+/**
+ * Owns the single process-wide connection to the alarm database.  Every
+ * DbAccessor acquires it on construction and releases it when closed; the
+ * database is opened on the first acquisition and closed when the last
+ * holder releases it, so short lived accessors share one connection and
+ * one page cache instead of opening their own.
+ */
+public final class SharedDatabase {
+  private static DbHelper helper;
+  private static SQLiteDatabase db;
+  private static int references;
+
+  private SharedDatabase() {}
+
+  public static synchronized SQLiteDatabase acquire(Context context) {
+    if (db == null) {
+      helper = new DbHelper(context.getApplicationContext());
+      db = helper.getWritableDatabase();
+      // Readers don't block on the writer, and a commit appends to the log
+      // instead of rewriting pages in place.
+      db.enableWriteAheadLogging();
+    }
+    ++references;
+    return db;
+  }
+
+  public static synchronized void release() {
+    if (references == 0) {
+      throw new IllegalStateException("Database released more often than acquired");
+    }
+    if (--references == 0) {
+      helper.close();
+      helper = null;
+      db = null;
+    }
+  }
+
+  /**
+   * @return The number of holders of the shared connection.
+   */
+  public static synchronized int references() {
+    return references;
+  }
+}
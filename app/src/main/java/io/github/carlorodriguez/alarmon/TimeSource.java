@@ -0,0 +1,59 @@
+/****************************************************************************
+ * Copyright 2010 kraigs.android@gmail.com
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ****************************************************************************/
+
+package io.github.carlorodriguez.alarmon;
+
+import java.util.TimeZone;
+
+/**
+ * Wall clock time and time zone for the scheduler.  Everything which asks
+ * "what time is it" when computing or dispatching alarms goes through
+ * TimeSource.get(), so that a test can install its own source and move time
+ * forward without waiting.
+ */
+public abstract class TimeSource {
+  /**
+   * The device clock and default time zone.
+   */
+  public static final TimeSource SYSTEM = new TimeSource() {
+    @Override
+    public long currentTimeMillis() {
+      return System.currentTimeMillis();
+    }
+  };
+
+  private static volatile TimeSource current = SYSTEM;
+
+  public static TimeSource get() {
+    return current;
+  }
+
+  /**
+   * Replaces the process-wide time source.
+   * @param source New source, or null to restore SYSTEM.
+   */
+  public static void set(TimeSource source) {
+    current = source == null ? SYSTEM : source;
+  }
+
+  /**
+   * @return Current time in epoch millis.
+   */
+  public abstract long currentTimeMillis();
+
+  public TimeZone timeZone() {
+    return TimeZone.getDefault();
+  }
+}
@@ -29,46 +29,72 @@ public class Week implements Parcelable {
     }
   }
 
-  private boolean[] bitmask;
+  // Bit n is set if Day.values()[n] is part of this week.
+  public static final int ALL_DAYS_MASK = (1 << 7) - 1;
+
+  private int mask;
 
   public Week(Parcel source) {
-    bitmask = source.createBooleanArray();
+    mask = source.readInt();
   }
 
   @Override
   public void writeToParcel(Parcel dest, int flags) {
-    dest.writeBooleanArray(bitmask);
+    dest.writeInt(mask);
   }
 
   public Week() {
-    bitmask = new boolean[Day.values().length];
+    mask = 0;
   }
 
   public Week(Week rhs) {
-    bitmask = rhs.bitmask.clone();
+    mask = rhs.mask;
+  }
+
+  public Week(int mask) {
+    if ((mask & ~ALL_DAYS_MASK) != 0) {
+      throw new IllegalArgumentException("Invalid day mask: " + mask);
+    }
+    this.mask = mask;
   }
 
   public Week(boolean[] bitmask) {
     if (bitmask.length != Day.values().length) {
       throw new IllegalArgumentException("Wrong sized bitmask: " + bitmask.length);
     }
-    this.bitmask = bitmask;
+    for (Day day : Day.values()) {
+      if (bitmask[day.ordinal()]) {
+        mask |= 1 << day.ordinal();
+      }
+    }
   }
 
+  /**
+   * @return A new array with one entry per Day.  Changes to the array are
+   * not reflected in this week.
+   */
   public boolean[] bitmask() {
+    boolean[] bitmask = new boolean[Day.values().length];
+    for (Day day : Day.values()) {
+      bitmask[day.ordinal()] = hasDay(day);
+    }
     return bitmask;
   }
 
+  public int mask() {
+    return mask;
+  }
+
   public void addDay(Day day) {
-    bitmask[day.ordinal()] = true;
+    mask |= 1 << day.ordinal();
   }
 
   public void removeDay(Day day) {
-    bitmask[day.ordinal()] = false;
+    mask &= ~(1 << day.ordinal());
   }
 
   public boolean hasDay(Day day) {
-    return bitmask[day.ordinal()];
+    return (mask & 1 << day.ordinal()) != 0;
   }
 
   public CharSequence[] names(Context context) {
@@ -94,7 +120,7 @@ public class Week implements Parcelable {
     }
     String list = "";
     for (Day day : Day.values()) {
-      if (!bitmask[day.ordinal()]) {
+      if (!hasDay(day)) {
         continue;
       }
       switch (day) {
@@ -130,15 +156,12 @@ public class Week implements Parcelable {
       return false;
     }
     Week rhs = (Week) o;
-    if (bitmask.length != rhs.bitmask.length) {
-      return false;
-    }
-    for (Day day : Day.values()) {
-      if (bitmask[day.ordinal()] != rhs.bitmask[day.ordinal()]) {
-        return false;
-      }
-    }
-    return true;
+    return mask == rhs.mask;
+  }
+
+  @Override
+  public int hashCode() {
+    return mask;
   }
 
   @Override
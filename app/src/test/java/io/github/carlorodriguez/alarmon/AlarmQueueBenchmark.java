@@ -0,0 +1,120 @@
+/****************************************************************************
+ * Copyright 2010 kraigs.android@gmail.com
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ****************************************************************************/
+
+package io.github.carlorodriguez.alarmon;
+
+import java.util.Random;
+import java.util.TreeMap;
+
+/**
+ * Times the pending alarm operations on AlarmQueue and on the two sorted
+ * maps PendingAlarmList used before it.  The maps are keyed by Long here
+ * rather than by the old Calendar-backed AlarmTime, so they are timed at
+ * their best.  Not a test; run its main() by hand:
+ *
+ *   java -cp ... io.github.carlorodriguez.alarmon.AlarmQueueBenchmark
+ */
+public final class AlarmQueueBenchmark {
+  private static final long DAY = 24 * 60 * 60 * 1000L;
+  private static final int[] SIZES = { 10, 100, 1000, 10000 };
+  private static final int OPERATIONS = 2000000;
+  private static final int RUNS = 5;
+
+  // Keeps the timed loops from being optimized away.
+  private static volatile long blackhole;
+
+  private AlarmQueueBenchmark() {}
+
+  public static void main(String[] args) {
+    System.out.println("alarms  AlarmQueue ns/op  TreeMaps ns/op");
+    for (int size : SIZES) {
+      // Warm up, then keep the best run of each.
+      long queue = Long.MAX_VALUE;
+      long maps = Long.MAX_VALUE;
+      for (int run = 0; run < RUNS + 2; ++run) {
+        long queueNanos = timeQueue(size);
+        long mapsNanos = timeMaps(size);
+        if (run >= 2) {
+          queue = Math.min(queue, queueNanos);
+          maps = Math.min(maps, mapsNanos);
+        }
+      }
+      System.out.printf("%6d  %16.1f  %14.1f%n", size,
+          (double) queue / OPERATIONS, (double) maps / OPERATIONS);
+    }
+  }
+
+  // Each operation fires the first alarm and schedules it a day later, or
+  // moves a random alarm to a new time, and then looks at the next alarm.
+  private static long timeQueue(int size) {
+    Random random = new Random(size);
+    AlarmQueue<Object> queue = new AlarmQueue<>();
+    for (int id = 0; id < size; ++id) {
+      queue.put(id, random.nextInt(7) * DAY + id, null);
+    }
+    long checksum = 0;
+    long start = System.nanoTime();
+    for (int op = 0; op < OPERATIONS; ++op) {
+      if ((op & 3) != 0) {
+        long id = queue.peekId();
+        long key = queue.peekKey();
+        queue.remove(id);
+        queue.put(id, key + DAY, null);
+      } else {
+        long id = random.nextInt(size);
+        queue.put(id, queue.keyOf(id) + random.nextInt(1000) * size, null);
+      }
+      checksum += queue.peekId();
+    }
+    long nanos = System.nanoTime() - start;
+    blackhole = checksum;
+    return nanos;
+  }
+
+  private static long timeMaps(int size) {
+    Random random = new Random(size);
+    TreeMap<Long, Long> keys = new TreeMap<>();
+    TreeMap<Long, Long> ids = new TreeMap<>();
+    for (int id = 0; id < size; ++id) {
+      long key = random.nextInt(7) * DAY + id;
+      keys.put((long) id, key);
+      ids.put(key, (long) id);
+    }
+    long checksum = 0;
+    long start = System.nanoTime();
+    for (int op = 0; op < OPERATIONS; ++op) {
+      // Fire times stay unique because every change moves an alarm by a
+      // multiple of size, which the old maps need.
+      if ((op & 3) != 0) {
+        long key = ids.firstKey();
+        long id = ids.remove(key);
+        keys.remove(id);
+        keys.put(id, key + DAY);
+        ids.put(key + DAY, id);
+      } else {
+        long id = random.nextInt(size);
+        long key = keys.remove(id);
+        ids.remove(key);
+        key += random.nextInt(1000) * size;
+        keys.put(id, key);
+        ids.put(key, id);
+      }
+      checksum += ids.firstEntry().getValue();
+    }
+    long nanos = System.nanoTime() - start;
+    blackhole = checksum;
+    return nanos;
+  }
+}
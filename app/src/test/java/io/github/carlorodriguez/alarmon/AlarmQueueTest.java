@@ -0,0 +1,187 @@
+/****************************************************************************
+ * Copyright 2010 kraigs.android@gmail.com
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ****************************************************************************/
+
+package io.github.carlorodriguez.alarmon;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+/**
+ * Checks AlarmQueue against a pair of sorted maps, the structure
+ * PendingAlarmList used before it, with ties in fire time broken by id.
+ */
+public class AlarmQueueTest {
+  @Test
+  public void emptyQueue() {
+    AlarmQueue<String> queue = new AlarmQueue<>();
+    assertTrue(queue.isEmpty());
+    assertEquals(AlarmClockServiceBinder.NO_ALARM_ID, queue.peekId());
+    assertEquals(Long.MAX_VALUE, queue.peekKey());
+    assertNull(queue.peekValue());
+    assertNull(queue.get(1));
+    assertEquals(Long.MAX_VALUE, queue.keyOf(1));
+    assertFalse(queue.remove(1));
+    assertEquals(0, queue.sortedIds().length);
+  }
+
+  @Test
+  public void equalFireTimesAreOrderedById() {
+    AlarmQueue<String> queue = new AlarmQueue<>();
+    queue.put(3, 100, "c");
+    queue.put(1, 100, "a");
+    queue.put(2, 100, "b");
+    assertEquals(3, queue.size());
+    assertEquals(1, queue.peekId());
+    assertArrayEquals(new long[] { 1, 2, 3 }, queue.sortedIds());
+  }
+
+  @Test
+  public void putReplacesAnExistingAlarm() {
+    AlarmQueue<String> queue = new AlarmQueue<>();
+    queue.put(1, 100, "a");
+    queue.put(2, 200, "b");
+    queue.put(1, 300, "a2");
+    assertEquals(2, queue.size());
+    assertEquals(2, queue.peekId());
+    assertEquals(300, queue.keyOf(1));
+    assertEquals("a2", queue.get(1));
+  }
+
+  @Test
+  public void matchesSortedMaps() {
+    Random random = new Random(20161017);
+    // Small id and time ranges, so that puts hit existing ids and fire
+    // times collide.
+    for (int round = 0; round < 20; ++round) {
+      int idRange = round < 10 ? 40 : 2000;
+      AlarmQueue<Long> queue = new AlarmQueue<>();
+      Reference reference = new Reference();
+      for (int op = 0; op < 20000; ++op) {
+        long id = random.nextInt(idRange);
+        int choice = random.nextInt(10);
+        if (choice < 5) {
+          long key = random.nextInt(idRange / 2);
+          queue.put(id, key, key);
+          reference.put(id, key);
+        } else if (choice < 8) {
+          assertEquals(reference.remove(id), queue.remove(id));
+        } else if (choice < 9) {
+          if (!reference.isEmpty()) {
+            long head = reference.firstId();
+            assertEquals(head, queue.peekId());
+            assertTrue(queue.remove(head));
+            reference.remove(head);
+          }
+        } else if (random.nextInt(100) == 0) {
+          queue.clear();
+          reference = new Reference();
+        }
+        assertEquals(reference.size(), queue.size());
+        assertEquals(reference.firstId(), queue.peekId());
+        assertEquals(reference.firstKey(), queue.peekKey());
+        assertEquals(reference.contains(id), queue.contains(id));
+        assertEquals(reference.keyOf(id), queue.keyOf(id));
+        if (op % 100 == 0) {
+          long[] expected = reference.sortedIds();
+          assertArrayEquals(expected, queue.sortedIds());
+          long[] ids = queue.ids();
+          Arrays.sort(ids);
+          Arrays.sort(expected);
+          assertArrayEquals(expected, ids);
+          for (long each : expected) {
+            assertEquals(Long.valueOf(reference.keyOf(each)), queue.get(each));
+          }
+        }
+      }
+    }
+  }
+
+  // Alarm id to fire time, and the entries ordered by fire time then id.
+  private static final class Reference {
+    private final Map<Long, Long> keys = new TreeMap<>();
+    private final TreeSet<long[]> order = new TreeSet<>(
+        new Comparator<long[]>() {
+          @Override
+          public int compare(long[] a, long[] b) {
+            if (a[0] != b[0]) {
+              return a[0] < b[0] ? -1 : 1;
+            }
+            return a[1] < b[1] ? -1 : (a[1] == b[1] ? 0 : 1);
+          }
+        });
+
+    void put(long id, long key) {
+      remove(id);
+      keys.put(id, key);
+      order.add(new long[] { key, id });
+    }
+
+    boolean remove(long id) {
+      Long key = keys.remove(id);
+      if (key == null) {
+        return false;
+      }
+      order.remove(new long[] { key, id });
+      return true;
+    }
+
+    boolean isEmpty() {
+      return keys.isEmpty();
+    }
+
+    int size() {
+      return keys.size();
+    }
+
+    boolean contains(long id) {
+      return keys.containsKey(id);
+    }
+
+    long keyOf(long id) {
+      Long key = keys.get(id);
+      return key == null ? Long.MAX_VALUE : key;
+    }
+
+    long firstId() {
+      return order.isEmpty() ? AlarmClockServiceBinder.NO_ALARM_ID
+          : order.first()[1];
+    }
+
+    long firstKey() {
+      return order.isEmpty() ? Long.MAX_VALUE : order.first()[0];
+    }
+
+    long[] sortedIds() {
+      long[] ids = new long[order.size()];
+      int i = 0;
+      for (long[] entry : order) {
+        ids[i++] = entry[1];
+      }
+      return ids;
+    }
+  }
+}
@@ -0,0 +1,95 @@
+/****************************************************************************
+ * Copyright 2010 kraigs.android@gmail.com
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ****************************************************************************/
+
+package io.github.carlorodriguez.alarmon;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.Shadows;
+import org.robolectric.annotation.Config;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 23)
+public class AlarmRepositoryTest {
+  private DbAccessor db;
+  private AlarmRepository alarms;
+
+  @Before
+  public void setUp() {
+    db = new DbAccessor(RuntimeEnvironment.application);
+    alarms = new AlarmRepository(db);
+    alarms.invalidate();
+  }
+
+  @After
+  public void tearDown() {
+    AlarmWriteQueue.shutdown();
+    db.closeConnections();
+  }
+
+  @Test
+  public void alarmsWithoutSettingsRingWithTheDefaults() {
+    long plain = db.newAlarm(new AlarmTime(7, 0, 0), true, "plain");
+    long custom = db.newAlarm(new AlarmTime(8, 0, 0), true, "custom");
+    AlarmSettings own = new AlarmSettings();
+    own.setSnoozeMinutes(2);
+    alarms.writeAlarmSettings(custom, own);
+    AlarmSettings defaults = new AlarmSettings();
+    defaults.setSnoozeMinutes(7);
+    alarms.writeAlarmSettings(AlarmSettings.DEFAULT_SETTINGS_ID, defaults);
+    // Neither write is committed yet.
+    assertTrue(AlarmWriteQueue.isBusy());
+    alarms.invalidate();
+
+    assertEquals(7, alarms.readAlarmSettings(plain).getSnoozeMinutes());
+    assertEquals(7, alarms.readAlarmDetails(plain).getSettings()
+        .getSnoozeMinutes());
+    assertEquals(2, alarms.readAlarmSettings(custom).getSnoozeMinutes());
+    // Alarms that don't exist get the defaults too.
+    assertEquals(7, alarms.readAlarmSettings(0).getSnoozeMinutes());
+    assertTrue(AlarmWriteQueue.isBusy());
+
+    Shadows.shadowOf(AlarmWriteQueue.looper()).idle();
+    alarms.invalidate();
+    assertEquals(7, alarms.readAlarmSettings(
+        AlarmSettings.DEFAULT_SETTINGS_ID).getSnoozeMinutes());
+    assertEquals(7, alarms.readAlarmDetails(plain).getSettings()
+        .getSnoozeMinutes());
+    assertEquals(2, alarms.readAlarmDetails(custom).getSettings()
+        .getSnoozeMinutes());
+  }
+
+  @Test
+  public void accessorLeavesDefaultsToTheRepository() {
+    long plain = db.newAlarm(new AlarmTime(7, 0, 0), true, "plain");
+    assertNull(db.readAlarmDetails(plain).getSettings());
+
+    AlarmSettings defaults = new AlarmSettings();
+    defaults.setSnoozeMinutes(9);
+    alarms.writeAlarmSettings(AlarmSettings.DEFAULT_SETTINGS_ID, defaults);
+    assertEquals(9, alarms.readAlarmDetails(plain).getSettings()
+        .getSnoozeMinutes());
+    assertEquals(new AlarmSettings().getSnoozeMinutes(),
+        db.readAlarmSettings(plain).getSnoozeMinutes());
+  }
+}
@@ -0,0 +1,137 @@
+/****************************************************************************
+ * Copyright 2010 kraigs.android@gmail.com
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ****************************************************************************/
+
+package io.github.carlorodriguez.alarmon;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Calendar;
+import java.util.TimeZone;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class AlarmTimeTest {
+  private static final long MINUTE = 60 * 1000L;
+  private static final long HOUR = 60 * MINUTE;
+
+  private TimeZone zone;
+  private FakeTimeSource clock;
+
+  @Before
+  public void setUp() {
+    zone = TimeZone.getTimeZone("Europe/London");
+    Calendar calendar = Calendar.getInstance(zone);
+    calendar.clear();
+    // A Wednesday, 10:15:30.250 BST.
+    calendar.set(2016, Calendar.JUNE, 1, 10, 15, 30);
+    calendar.set(Calendar.MILLISECOND, 250);
+    clock = new FakeTimeSource(calendar.getTimeInMillis(), zone);
+    TimeSource.set(clock);
+  }
+
+  @After
+  public void tearDown() {
+    TimeSource.set(null);
+  }
+
+  @Test
+  public void firesLaterTodayOrTomorrow() {
+    long now = clock.currentTimeMillis();
+    assertEquals(now - 30250 + 45 * MINUTE,
+        new AlarmTime(11, 0, 0).fireMillis());
+    assertEquals(now - 30250 - 15 * MINUTE + 24 * HOUR,
+        new AlarmTime(10, 0, 0).fireMillis());
+  }
+
+  @Test
+  public void firesOnTheNextListedDay() {
+    Week friday = new Week();
+    friday.addDay(Week.Day.FRI);
+    AlarmTime time = new AlarmTime(9, 0, 0, friday);
+    Calendar fire = Calendar.getInstance(zone);
+    fire.setTimeInMillis(time.fireMillis());
+    assertEquals(Calendar.FRIDAY, fire.get(Calendar.DAY_OF_WEEK));
+    assertEquals(9, fire.get(Calendar.HOUR_OF_DAY));
+    assertEquals(0, fire.get(Calendar.MINUTE));
+    assertEquals(3, fire.get(Calendar.DAY_OF_MONTH));
+    assertTrue(time.repeats());
+  }
+
+  @Test
+  public void outOfRangeTimesWrap() {
+    AlarmTime time = new AlarmTime(25, 61, 0);
+    assertEquals(2, time.hourOfDay());
+    assertEquals(1, time.minute());
+    assertEquals(0, time.second());
+    assertEquals(new AlarmTime(-3600, 0), new AlarmTime(23, 0, 0));
+  }
+
+  @Test
+  public void accessors() {
+    AlarmTime time = new AlarmTime(7, 8, 9);
+    assertEquals(7 * 3600 + 8 * 60 + 9, time.secondsOfDay());
+    assertEquals(7, time.hourOfDay());
+    assertEquals(8, time.minute());
+    assertEquals(9, time.second());
+    assertFalse(time.repeats());
+    assertEquals(0, time.daysOfWeekMask());
+    assertEquals(time.fireMillis(), time.calendar().getTimeInMillis());
+    assertEquals(zone, time.calendar().getTimeZone());
+  }
+
+  @Test
+  public void daysOfWeekIsACopy() {
+    AlarmTime time = new AlarmTime(7, 0, 0, new Week(Week.ALL_DAYS_MASK));
+    Week days = time.getDaysOfWeek();
+    days.removeDay(Week.Day.MON);
+    assertEquals(Week.ALL_DAYS_MASK, time.daysOfWeekMask());
+  }
+
+  @Test
+  public void equalityIgnoresFireTime() {
+    AlarmTime today = new AlarmTime(12, 0, 0);
+    clock.advance(24 * HOUR);
+    AlarmTime tomorrow = new AlarmTime(12, 0, 0);
+    assertEquals(today, tomorrow);
+    assertEquals(today.hashCode(), tomorrow.hashCode());
+    assertTrue(today.compareTo(tomorrow) < 0);
+    assertTrue(tomorrow.compareTo(today) > 0);
+    assertEquals(0, today.compareTo(new AlarmTime(today)));
+    assertNotEquals(today, new AlarmTime(12, 0, 1));
+    assertNotEquals(today, new AlarmTime(12, 0, 0, new Week(1)));
+  }
+
+  @Test
+  public void snoozeTruncatesSeconds() {
+    AlarmTime snooze = AlarmTime.snoozeInMillisUTC(10);
+    assertEquals(clock.currentTimeMillis() - 30250 + 10 * MINUTE,
+        snooze.fireMillis());
+    assertFalse(snooze.repeats());
+  }
+
+  @Test
+  public void savedTimeIsKeptAsIs() {
+    long saved = clock.currentTimeMillis() - HOUR;
+    AlarmTime time = new AlarmTime(saved, 9 * 3600, 0xFF);
+    assertEquals(saved, time.fireMillis());
+    assertEquals(9 * 3600, time.secondsOfDay());
+    assertEquals(Week.ALL_DAYS_MASK, time.daysOfWeekMask());
+  }
+}
@@ -0,0 +1,262 @@
+/****************************************************************************
+ * Copyright 2010 kraigs.android@gmail.com
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ****************************************************************************/
+
+package io.github.carlorodriguez.alarmon;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.StringReader;
+import java.io.Writer;
+import java.nio.charset.Charset;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import android.database.Cursor;
+import android.net.Uri;
+
+/**
+ * Exports alarms, imports them back and checks that nothing was lost or
+ * reordered, and that bad input fails without inserting half a batch.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 23)
+public class AlarmTransferTest {
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+  private static final int WEEKDAYS = 0x1f;
+
+  private DbAccessor db;
+
+  @Before
+  public void setUp() {
+    db = new DbAccessor(RuntimeEnvironment.application);
+  }
+
+  @After
+  public void tearDown() {
+    db.closeConnections();
+  }
+
+  @Test
+  public void roundTripKeepsNamesSettingsAndOrder() throws IOException {
+    AlarmSettings defaults = settings(11, "Gl\u00f6ckchen", false);
+    db.writeAlarmSettings(AlarmSettings.DEFAULT_SETTINGS_ID, defaults);
+    String[] names = {
+      // Kanji, an accent with a bell outside the BMP, and no name.
+      "\u6708\u66dc\u65e5", "Caf\u00e9 \ud83d\udd14", null,
+    };
+    AlarmTime[] times = {
+      new AlarmTime(6, 30, 0, new Week(WEEKDAYS)),
+      new AlarmTime(7, 0, 0),
+      new AlarmTime(23, 59, 0, new Week(Week.ALL_DAYS_MASK)),
+    };
+    boolean[] enabled = { true, false, true };
+    AlarmSettings[] alarmSettings = {
+      null,
+      settings(4, "\u0421\u0438\u0440\u0435\u043d\u0430", true),
+      settings(9, "", false),
+    };
+    long[] ids = new long[names.length];
+    for (int i = 0; i < ids.length; ++i) {
+      ids[i] = db.newAlarm(times[i], enabled[i], names[i]);
+      if (alarmSettings[i] != null) {
+        db.writeAlarmSettings(ids[i], alarmSettings[i]);
+      }
+    }
+
+    byte[] exported = export();
+    String text = new String(exported, UTF_8);
+    String[] lines = text.split("\n");
+    assertEquals(4, lines.length);
+    assertTrue(lines[0].startsWith("{\"defaults\":"));
+    // Written as UTF-8, not as escapes.
+    assertTrue(lines[1].contains(names[0]));
+    assertTrue(lines[2].contains(names[1]));
+    assertTrue(lines[2].contains(alarmSettings[1].getToneName()));
+
+    db.deleteAlarms(ids);
+    db.writeAlarmSettings(AlarmSettings.DEFAULT_SETTINGS_ID,
+        new AlarmSettings());
+    AlarmTransfer.ImportResult result = new AlarmTransfer.ImportResult();
+    AlarmTransfer.importAlarms(db, new InputStreamReader(
+        new ByteArrayInputStream(exported), UTF_8), result);
+
+    assertEquals(3, result.alarmCount());
+    long[] imported = importedIds();
+    assertEquals(3, imported.length);
+    assertArrayEquals(new long[] { imported[0], imported[2] },
+        result.enabledAlarmIds());
+    for (int i = 0; i < imported.length; ++i) {
+      AlarmDetails details = db.readAlarmDetails(imported[i]);
+      AlarmInfo info = details.getInfo();
+      assertEquals(names[i], info.getName());
+      assertEquals(enabled[i], info.enabled());
+      assertEquals(times[i].secondsOfDay(), info.getTime().secondsOfDay());
+      assertEquals(times[i].daysOfWeekMask(),
+          info.getTime().daysOfWeekMask());
+      assertEquals(alarmSettings[i], details.getSettings());
+    }
+    assertEquals(defaults,
+        db.readAlarmSettings(AlarmSettings.DEFAULT_SETTINGS_ID));
+
+    // Nothing but the ids differs, and those aren't exported.
+    assertEquals(text, new String(export(), UTF_8));
+  }
+
+  @Test
+  public void looseButValidRowsAreAccepted() throws IOException {
+    AlarmTransfer.ImportResult result = importLines(
+        "{\"time\":25200.0,\"dow\":31,\"enabled\":true,"
+            + "\"extra\":{\"nested\":[1,2]},\"name\":\"decimal\"}",
+        // No enabled flag, so disabled.
+        "{\"time\":0,\"name\":\"midnight\"}",
+        "{\"time\":86399,\"dow\":127,\"enabled\":1,\"name\":null}");
+
+    assertEquals(3, result.alarmCount());
+    long[] imported = importedIds();
+    assertArrayEquals(new long[] { imported[0], imported[2] },
+        result.enabledAlarmIds());
+    AlarmInfo decimal = db.readAlarmInfo(imported[0]);
+    assertEquals(25200, decimal.getTime().secondsOfDay());
+    assertEquals(WEEKDAYS, decimal.getTime().daysOfWeekMask());
+    assertFalse(db.readAlarmInfo(imported[1]).enabled());
+    assertNull(db.readAlarmInfo(imported[2]).getName());
+  }
+
+  @Test
+  public void malformedRowsFailTheBatch() {
+    String[] malformed = {
+      "{\"time\":86400}",
+      "{\"time\":-1}",
+      "{\"time\":25200.5}",
+      "{\"time\":\"seven\"}",
+      "{\"time\":[25200]}",
+      "{\"dow\":128}",
+      "{\"enabled\":2}",
+      "{\"settings\":5}",
+      "{\"name\":\"cut short\"",
+    };
+    for (String line : malformed) {
+      AlarmTransfer.ImportResult result = new AlarmTransfer.ImportResult();
+      try {
+        // A good row first, which must not be committed either.
+        importLines(result, "{\"time\":3600,\"enabled\":1}", line);
+        fail(line);
+      } catch (IOException e) {
+        // Expected.
+      }
+      assertEquals(line, 0, result.alarmCount());
+      assertEquals(line, 0, result.enabledAlarmIds().length);
+      assertEquals(line, 0, importedIds().length);
+    }
+  }
+
+  @Test
+  public void failedImportKeepsCommittedBatches() {
+    int count = AlarmTransfer.BATCH_SIZE + 1;
+    String[] lines = new String[count + 1];
+    for (int i = 0; i < count; ++i) {
+      lines[i] = "{\"name\":\"" + i + "\",\"time\":" + i * 60
+          + ",\"enabled\":" + (i % 3 == 0 ? 1 : 0) + "}";
+    }
+    lines[count] = "{\"dow\":-1}";
+
+    AlarmTransfer.ImportResult result = new AlarmTransfer.ImportResult();
+    try {
+      importLines(result, lines);
+      fail();
+    } catch (IOException e) {
+      // Expected.
+    }
+
+    // The first batch is in the database, and result holds what
+    // AlarmClockService.importAlarms() schedules in its finally block.
+    long[] imported = importedIds();
+    assertEquals(AlarmTransfer.BATCH_SIZE, imported.length);
+    assertEquals(AlarmTransfer.BATCH_SIZE, result.alarmCount());
+    long[] enabledIds = result.enabledAlarmIds();
+    assertEquals((AlarmTransfer.BATCH_SIZE + 2) / 3, enabledIds.length);
+    for (int i = 0; i < enabledIds.length; ++i) {
+      assertEquals(imported[i * 3], enabledIds[i]);
+      AlarmInfo info = db.readAlarmInfo(enabledIds[i]);
+      assertTrue(info.enabled());
+      assertEquals(String.valueOf(i * 3), info.getName());
+    }
+  }
+
+  private static AlarmSettings settings(int snoozeMinutes, String toneName,
+      boolean vibrate) {
+    AlarmSettings settings = new AlarmSettings();
+    settings.setTone(Uri.parse("content://media/internal/audio/media/12"),
+        toneName);
+    settings.setSnoozeMinutes(snoozeMinutes);
+    settings.setVibrate(vibrate);
+    return settings;
+  }
+
+  private byte[] export() throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    Writer out = new OutputStreamWriter(bytes, UTF_8);
+    AlarmTransfer.exportAlarms(db, out);
+    out.close();
+    return bytes.toByteArray();
+  }
+
+  private AlarmTransfer.ImportResult importLines(String... lines)
+      throws IOException {
+    AlarmTransfer.ImportResult result = new AlarmTransfer.ImportResult();
+    importLines(result, lines);
+    return result;
+  }
+
+  private void importLines(AlarmTransfer.ImportResult result,
+      String... lines) throws IOException {
+    StringBuilder text = new StringBuilder();
+    for (String line : lines) {
+      text.append(line).append('\n');
+    }
+    AlarmTransfer.importAlarms(db, new StringReader(text.toString()), result);
+  }
+
+  // The ids of every alarm, oldest first.
+  private long[] importedIds() {
+    Cursor cursor = db.readAllAlarmDetails();
+    try {
+      long[] ids = new long[cursor.getCount()];
+      int id = cursor.getColumnIndex(DbHelper.ALARMS_COL__ID);
+      for (int i = 0; cursor.moveToNext(); ++i) {
+        ids[i] = cursor.getLong(id);
+      }
+      return ids;
+    } finally {
+      cursor.close();
+    }
+  }
+}
@@ -0,0 +1,206 @@
+/****************************************************************************
+ * Copyright 2010 kraigs.android@gmail.com
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ****************************************************************************/
+
+package io.github.carlorodriguez.alarmon;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.Shadows;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+import android.content.Context;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Handler;
+import android.os.Looper;
+
+/**
+ * Runs the writer's messages on the test thread, so that each test decides
+ * when a batch is committed.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 23)
+public class AlarmWriteQueueTest {
+  private Context context;
+  private DbAccessor db;
+  private AlarmRepository alarms;
+  private long alarmId;
+
+  @Before
+  public void setUp() {
+    context = RuntimeEnvironment.application;
+    db = new DbAccessor(context);
+    alarms = new AlarmRepository(db);
+    alarms.invalidate();
+    alarmId = db.newAlarm(new AlarmTime(7, 0, 0), true, "before");
+  }
+
+  @After
+  public void tearDown() {
+    AlarmWriteQueue.shutdown();
+    db.closeConnections();
+  }
+
+  @Test
+  public void cacheMissesReadQueuedWrites() {
+    AlarmInfo info = db.readAlarmInfo(alarmId);
+    info.setName("queued");
+    alarms.writeAlarmInfo(alarmId, info);
+    AlarmSettings settings = new AlarmSettings();
+    settings.setSnoozeMinutes(3);
+    alarms.writeAlarmSettings(alarmId, settings);
+    alarms.invalidate();
+
+    // Answered from the queue, without waiting for the writer.
+    assertEquals("queued", alarms.readAlarmInfo(alarmId).getName());
+    assertEquals(3, alarms.readAlarmSettings(alarmId).getSnoozeMinutes());
+    alarms.invalidate();
+    AlarmDetails details = alarms.readAlarmDetails(alarmId);
+    assertEquals("queued", details.getInfo().getName());
+    assertEquals(3, details.getSettings().getSnoozeMinutes());
+    assertEquals("before", db.readAlarmInfo(alarmId).getName());
+
+    runWriter();
+    assertFalse(AlarmWriteQueue.isBusy());
+    assertNull(AlarmWriteQueue.pendingAlarmInfo(alarmId));
+    assertEquals("queued", db.readAlarmInfo(alarmId).getName());
+    assertEquals(3, db.readAlarmSettings(alarmId).getSnoozeMinutes());
+  }
+
+  @Test
+  public void failedBatchIsRetriedBehindNewerWrites() {
+    hideEvents();
+    AlarmInfo info = db.readAlarmInfo(alarmId);
+    info.setName("failed");
+    alarms.writeAlarmInfo(alarmId, info);
+    AlarmEventLog.record(context, alarmId, AlarmEventLog.SCHEDULED);
+    runWriter();
+
+    // Still queued, and still what readers see.
+    assertTrue(AlarmWriteQueue.isBusy());
+    assertEquals("failed", AlarmWriteQueue.pendingAlarmInfo(alarmId).getName());
+    assertEquals("before", db.readAlarmInfo(alarmId).getName());
+
+    info.setName("newer");
+    alarms.writeAlarmInfo(alarmId, info);
+    AlarmEventLog.record(context, alarmId, AlarmEventLog.FIRED);
+    restoreEvents();
+    int committed = AlarmWriteQueue.transactionCount();
+    runRetry();
+
+    assertFalse(AlarmWriteQueue.isBusy());
+    assertEquals(committed + 1, AlarmWriteQueue.transactionCount());
+    assertEquals("newer", db.readAlarmInfo(alarmId).getName());
+    assertEquals(2, countEvents());
+  }
+
+  @Test
+  public void batchIsDroppedAfterRepeatedFailures() throws Exception {
+    hideEvents();
+    AlarmInfo info = db.readAlarmInfo(alarmId);
+    info.setName("dropped");
+    alarms.writeAlarmInfo(alarmId, info);
+    AlarmEventLog.record(context, alarmId, AlarmEventLog.SCHEDULED);
+
+    final AtomicBoolean idle = new AtomicBoolean();
+    assertTrue(AlarmWriteQueue.whenIdle(new Handler(Looper.getMainLooper()),
+        new Runnable() {
+          @Override
+          public void run() {
+            idle.set(true);
+          }
+        }));
+    final AtomicBoolean flushed = new AtomicBoolean(true);
+    Thread flusher = new Thread() {
+      @Override
+      public void run() {
+        flushed.set(AlarmWriteQueue.flush());
+      }
+    };
+    flusher.start();
+
+    runWriter();
+    assertTrue(AlarmWriteQueue.isBusy());
+    runRetry();
+    assertTrue(AlarmWriteQueue.isBusy());
+    // The third attempt gives up.
+    runRetry();
+    flusher.join();
+
+    assertFalse(AlarmWriteQueue.isBusy());
+    assertFalse(flushed.get());
+    assertEquals("before", db.readAlarmInfo(alarmId).getName());
+    ShadowLooper.idleMainLooper();
+    assertTrue(idle.get());
+
+    // The queue carries on with later writes.
+    restoreEvents();
+    info.setName("later");
+    alarms.writeAlarmInfo(alarmId, info);
+    runWriter();
+    assertTrue(AlarmWriteQueue.flush());
+    assertEquals("later", db.readAlarmInfo(alarmId).getName());
+  }
+
+  // Runs what is posted to the writer, but not retries waiting for later.
+  private static void runWriter() {
+    Shadows.shadowOf(AlarmWriteQueue.looper()).idle();
+  }
+
+  // Runs the writer up to the retry of a failed batch, and the retry.
+  private static void runRetry() {
+    Shadows.shadowOf(AlarmWriteQueue.looper()).runToEndOfTasks();
+  }
+
+  // Makes every commit that logs an event fail.
+  private void hideEvents() {
+    execSQL("ALTER TABLE " + DbHelper.DB_TABLE_EVENTS + " RENAME TO hidden");
+  }
+
+  private void restoreEvents() {
+    execSQL("ALTER TABLE hidden RENAME TO " + DbHelper.DB_TABLE_EVENTS);
+  }
+
+  private void execSQL(String sql) {
+    SQLiteDatabase database = SharedDatabase.acquire(context);
+    try {
+      database.execSQL(sql);
+    } finally {
+      SharedDatabase.release();
+    }
+  }
+
+  private int countEvents() {
+    SQLiteDatabase database = SharedDatabase.acquire(context);
+    try {
+      return (int) DatabaseUtils.queryNumEntries(database,
+          DbHelper.DB_TABLE_EVENTS);
+    } finally {
+      SharedDatabase.release();
+    }
+  }
+}
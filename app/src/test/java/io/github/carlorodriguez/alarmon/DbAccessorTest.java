@@ -0,0 +1,129 @@
+/****************************************************************************
+ * Copyright 2010 kraigs.android@gmail.com
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ****************************************************************************/
+
+package io.github.carlorodriguez.alarmon;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Field;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import android.database.sqlite.SQLiteStatement;
+
+/**
+ * The single-alarm writes compile their statement once and rebind it for
+ * every call, so a binding left over from the previous call must never
+ * leak into the next row.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 23)
+public class DbAccessorTest {
+  private DbAccessor db;
+  private long first;
+  private long second;
+
+  @Before
+  public void setUp() {
+    db = new DbAccessor(RuntimeEnvironment.application);
+    first = db.newAlarm(new AlarmTime(7, 0, 0), true, "first");
+    second = db.newAlarm(new AlarmTime(8, 30, 0), false, "second");
+  }
+
+  @After
+  public void tearDown() {
+    db.closeConnections();
+  }
+
+  @Test
+  public void enableAlarmReusesItsStatement() throws Exception {
+    assertTrue(db.enableAlarm(first, false));
+    SQLiteStatement statement = statement("enableAlarmStatement");
+    assertTrue(db.enableAlarm(second, true));
+    assertFalse(db.enableAlarm(second + 100, true));
+    assertSame(statement, statement("enableAlarmStatement"));
+
+    assertFalse(db.readAlarmInfo(first).enabled());
+    assertTrue(db.readAlarmInfo(second).enabled());
+  }
+
+  @Test
+  public void writeAlarmInfoRebindsEveryColumn() throws Exception {
+    AlarmInfo info = db.readAlarmInfo(first);
+    info.setName("renamed");
+    info.setTime(new AlarmTime(6, 15, 0, new Week(Week.ALL_DAYS_MASK)));
+    assertTrue(db.writeAlarmInfo(first, info));
+    SQLiteStatement statement = statement("updateAlarmStatement");
+
+    // A null name after a non-null one must not keep the old binding.
+    AlarmInfo other = db.readAlarmInfo(second);
+    other.setName(null);
+    other.setEnabled(true);
+    assertTrue(db.writeAlarmInfo(second, other));
+    assertFalse(db.writeAlarmInfo(second + 100, other));
+    assertSame(statement, statement("updateAlarmStatement"));
+
+    AlarmInfo read = db.readAlarmInfo(first);
+    assertEquals("renamed", read.getName());
+    assertEquals(6 * 3600 + 15 * 60, read.getTime().secondsOfDay());
+    assertEquals(Week.ALL_DAYS_MASK, read.getTime().daysOfWeekMask());
+    assertTrue(read.enabled());
+    read = db.readAlarmInfo(second);
+    assertNull(read.getName());
+    assertEquals(8 * 3600 + 30 * 60, read.getTime().secondsOfDay());
+    assertTrue(read.enabled());
+  }
+
+  @Test
+  public void deleteAlarmReusesItsStatementAndDropsSettings()
+      throws Exception {
+    AlarmSettings settings = new AlarmSettings();
+    settings.setSnoozeMinutes(4);
+    db.writeAlarmSettings(first, settings);
+    db.writeAlarmSettings(second, settings);
+
+    assertTrue(db.deleteAlarm(first));
+    SQLiteStatement statement = statement("deleteAlarmStatement");
+    assertFalse(db.deleteAlarm(first));
+    assertSame(statement, statement("deleteAlarmStatement"));
+
+    assertNull(db.readAlarmInfo(first));
+    assertNull(db.readAlarmDetails(first));
+    AlarmDetails kept = db.readAlarmDetails(second);
+    assertNotNull(kept);
+    assertEquals(4, kept.getSettings().getSnoozeMinutes());
+    // The settings row went with the alarm, so a new alarm with the same
+    // id would not inherit it.
+    assertEquals(new AlarmSettings().getSnoozeMinutes(),
+        db.readAlarmSettings(first).getSnoozeMinutes());
+  }
+
+  private SQLiteStatement statement(String name) throws Exception {
+    Field field = DbAccessor.class.getDeclaredField(name);
+    field.setAccessible(true);
+    return (SQLiteStatement) field.get(db);
+  }
+}
@@ -0,0 +1,252 @@
+/****************************************************************************
+ * Copyright 2010 kraigs.android@gmail.com
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ****************************************************************************/
+
+package io.github.carlorodriguez.alarmon;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteQueryBuilder;
+
+/**
+ * Upgrades a database written by version 1 of the schema, which is frozen
+ * here as it was released, and checks the query plans of the indexed reads.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 23)
+public class DbHelperTest {
+  private static final String[] VERSION_1 = {
+    "CREATE TABLE alarms (_id INTEGER PRIMARY KEY AUTOINCREMENT, name TEXT, "
+        + "dow UNSIGNED INTEGER (0, 127), time UNSIGNED INTEGER (0, 86399),"
+        + "enabled UNSIGNED INTEGER (0, 1))",
+    "CREATE TABLE settings (id INTEGER PRIMARY KEY, tone_url TEXT,"
+        + "tone_name TEXT,snooze UNSIGNED INTEGER (1, 60),"
+        + "vibrate UNSIGNED INTEGER (0, 1),vol_start UNSIGNED INTEGER (1, 100),"
+        + "vol_end UNSIGNED INTEGER (1, 100),vol_time UNSIGNED INTEGER (1, 60),"
+        + "volume UNSIGNED INTEGER (1, 100),"
+        + "pause_signal UNSIGNED INTEGER (1, 49),"
+        + "number_signals UNSIGNED INTEGER (1, 49),"
+        + "length_signal UNSIGNED INTEGER (1, 100))",
+    "INSERT INTO alarms (name, dow, time, enabled)"
+        + " VALUES ('Work', 31, 25200, 1)",
+    "INSERT INTO alarms (name, dow, time, enabled)"
+        + " VALUES (NULL, 0, 3600, 0)",
+    "INSERT INTO settings (id, tone_url, snooze)"
+        + " VALUES (-1, 'content://a', 10)",
+    "INSERT INTO settings (id, tone_url, snooze) VALUES (1, 'content://b', 5)",
+    // Left behind by a version 1 delete that failed half way.
+    "INSERT INTO settings (id, tone_url, snooze) VALUES (7, 'content://c', 3)",
+  };
+
+  private Context context;
+  private DbHelper helper;
+
+  @Before
+  public void setUp() {
+    context = RuntimeEnvironment.application;
+    context.deleteDatabase(DbHelper.DB_NAME);
+  }
+
+  @After
+  public void tearDown() {
+    if (helper != null) {
+      helper.close();
+    }
+    context.deleteDatabase(DbHelper.DB_NAME);
+  }
+
+  @Test
+  public void upgradesVersion1Database() {
+    createVersion1();
+    SQLiteDatabase db = open();
+
+    assertEquals(DbHelper.DB_VERSION, db.getVersion());
+    List<String> history = new ArrayList<>();
+    history.add("1 Create alarms and settings");
+    for (DbHelper.Migration migration : DbHelper.MIGRATIONS) {
+      history.add(migration.version + " " + migration.description);
+    }
+    assertEquals(history, strings(db, "SELECT "
+        + DbHelper.SCHEMA_HISTORY_COL_VERSION + " || ' ' || "
+        + DbHelper.SCHEMA_HISTORY_COL_DESCRIPTION + " FROM "
+        + DbHelper.DB_TABLE_SCHEMA_HISTORY + " ORDER BY "
+        + DbHelper.SCHEMA_HISTORY_COL_VERSION));
+
+    // Version 2 and 4 indexes, the version 3 trigger and the version 4
+    // table.
+    assertEquals(Arrays.asList("alarms_enabled_time", "alarms_time",
+        "events_alarm_type_time"), schemaNames(db, "index"));
+    assertEquals(Arrays.asList("alarms_delete_settings"),
+        schemaNames(db, "trigger"));
+    assertTrue(schemaNames(db, "table").contains(DbHelper.DB_TABLE_EVENTS));
+
+    // The alarms are untouched, and version 3 dropped the orphaned
+    // settings but kept the defaults.
+    assertEquals(Arrays.asList("Work 25200 1 31", "null 3600 0 0"),
+        strings(db, "SELECT ifnull(name, 'null') || ' ' || time || ' ' || "
+            + "enabled || ' ' || dow FROM alarms ORDER BY _id"));
+    assertEquals(Arrays.asList("-1", "1"),
+        strings(db, "SELECT id FROM settings ORDER BY id"));
+
+    db.execSQL("DELETE FROM alarms WHERE _id = 1");
+    assertEquals(Arrays.asList("-1"),
+        strings(db, "SELECT id FROM settings ORDER BY id"));
+  }
+
+  @Test
+  public void upgradedSchemaMatchesNewDatabase() {
+    createVersion1();
+    List<String> upgraded = schema(open());
+    helper.close();
+    context.deleteDatabase(DbHelper.DB_NAME);
+
+    List<String> created = schema(open());
+    assertEquals(created, upgraded);
+  }
+
+  @Test
+  public void failedMigrationLeavesVersion1() {
+    createVersion1();
+    SQLiteDatabase fixture = openFixture();
+    // Version 4 can't create the events table over this one.
+    fixture.execSQL("CREATE TABLE " + DbHelper.DB_TABLE_EVENTS + " (x)");
+    fixture.close();
+
+    try {
+      open();
+      fail();
+    } catch (SQLiteException e) {
+      // Expected.
+    }
+    helper.close();
+    helper = null;
+
+    SQLiteDatabase db = openFixture();
+    try {
+      assertEquals(1, db.getVersion());
+      assertFalse(schemaNames(db, "table")
+          .contains(DbHelper.DB_TABLE_SCHEMA_HISTORY));
+      assertEquals(Arrays.<String>asList(), schemaNames(db, "index"));
+      assertEquals(Arrays.<String>asList(), schemaNames(db, "trigger"));
+      assertEquals(3, strings(db, "SELECT id FROM settings").size());
+    } finally {
+      db.close();
+    }
+  }
+
+  @Test
+  public void indexedReadsUseTheirIndexes() {
+    SQLiteDatabase db = open();
+    String enabled = DbHelper.ALARMS_COL_ENABLED + " = 1";
+
+    // getEnabledAlarms() reads only the index.
+    String plan = plan(db, new String[] { DbHelper.ALARMS_COL__ID },
+        enabled, null);
+    assertTrue(plan, plan.contains("COVERING INDEX alarms_enabled_time"));
+
+    // forEachEnabledAlarm()
+    plan = plan(db, AlarmInfo.contentColumns(), enabled, null);
+    assertTrue(plan, plan.contains("alarms_enabled_time"));
+
+    // readAlarmInfo() is sorted by the index, without a temporary b-tree.
+    plan = plan(db, AlarmInfo.contentColumns(), null,
+        DbHelper.ALARMS_COL_TIME + " ASC");
+    assertTrue(plan, plan.contains("alarms_time"));
+    assertFalse(plan, plan.contains("TEMP B-TREE"));
+  }
+
+  private void createVersion1() {
+    SQLiteDatabase db = openFixture();
+    try {
+      for (String sql : VERSION_1) {
+        db.execSQL(sql);
+      }
+      db.setVersion(1);
+    } finally {
+      db.close();
+    }
+  }
+
+  private SQLiteDatabase openFixture() {
+    return context.openOrCreateDatabase(DbHelper.DB_NAME,
+        Context.MODE_PRIVATE, null);
+  }
+
+  private SQLiteDatabase open() {
+    helper = new DbHelper(context);
+    return helper.getWritableDatabase();
+  }
+
+  // The query plan of the query DbAccessor makes with these arguments.
+  private static String plan(SQLiteDatabase db, String[] columns,
+      String selection, String orderBy) {
+    String sql = SQLiteQueryBuilder.buildQueryString(false,
+        DbHelper.DB_TABLE_ALARMS, columns, selection, null, null, orderBy,
+        null);
+    Cursor cursor = db.rawQuery("EXPLAIN QUERY PLAN " + sql, null);
+    try {
+      StringBuilder plan = new StringBuilder();
+      int detail = cursor.getColumnIndexOrThrow("detail");
+      while (cursor.moveToNext()) {
+        plan.append(cursor.getString(detail)).append('\n');
+      }
+      return plan.toString();
+    } finally {
+      cursor.close();
+    }
+  }
+
+  // Every table, index and trigger with its SQL, in name order.
+  private static List<String> schema(SQLiteDatabase db) {
+    return strings(db, "SELECT type || ' ' || name || ': ' || sql"
+        + " FROM sqlite_master WHERE sql IS NOT NULL ORDER BY name");
+  }
+
+  private static List<String> schemaNames(SQLiteDatabase db, String type) {
+    return strings(db, "SELECT name FROM sqlite_master WHERE type = '"
+        + type + "' AND name NOT LIKE 'sqlite_%' ORDER BY name");
+  }
+
+  private static List<String> strings(SQLiteDatabase db, String sql) {
+    Cursor cursor = db.rawQuery(sql, null);
+    try {
+      List<String> strings = new ArrayList<>();
+      while (cursor.moveToNext()) {
+        strings.add(cursor.getString(0));
+      }
+      return strings;
+    } finally {
+      cursor.close();
+    }
+  }
+}
@@ -0,0 +1,224 @@
+/****************************************************************************
+ * Copyright 2010 kraigs.android@gmail.com
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ****************************************************************************/
+
+package io.github.carlorodriguez.alarmon;
+
+import java.util.Random;
+
+import org.junit.Assume;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.text.TextUtils;
+
+/**
+ * Times the reads the version 2 indexes are for, with and without them, on
+ * 10k alarms of which 10% are enabled, and deleting alarms with and without
+ * the version 3 trigger.  Prints the query plans too.  It runs on the
+ * SQLite bundled with Robolectric, so its numbers compare the schemas with
+ * each other, not with a device.  Skipped unless ALARMON_BENCHMARK is set:
+ *
+ *   ALARMON_BENCHMARK=1 ./gradlew testDebugUnitTest \
+ *       --tests '*DbIndexBenchmark'
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 23)
+public class DbIndexBenchmark {
+  private static final int ALARMS = 10000;
+  private static final int DELETED = 1000;
+  private static final int RUNS = 50;
+  private static final int DELETE_RUNS = 10;
+
+  private static final String ENABLED = " WHERE "
+      + DbHelper.ALARMS_COL_ENABLED + " = 1";
+  private static final String COLUMNS = "SELECT "
+      + TextUtils.join(", ", AlarmInfo.contentColumns()) + " FROM "
+      + DbHelper.DB_TABLE_ALARMS;
+  private static final String[][] QUERIES = {
+    { "count of enabled alarms", "SELECT COUNT(*) FROM "
+        + DbHelper.DB_TABLE_ALARMS + ENABLED },
+    { "next enabled alarm by time", "SELECT " + DbHelper.ALARMS_COL__ID
+        + " FROM " + DbHelper.DB_TABLE_ALARMS + ENABLED + " ORDER BY "
+        + DbHelper.ALARMS_COL_TIME + " LIMIT 1" },
+    { "forEachEnabledAlarm()", COLUMNS + ENABLED },
+    { "readAlarmInfo()", COLUMNS + " ORDER BY "
+        + DbHelper.ALARMS_COL_TIME + " ASC" },
+  };
+
+  // Keeps the timed reads from being optimized away.
+  private static volatile long blackhole;
+
+  @Test
+  public void run() {
+    Assume.assumeTrue(System.getenv("ALARMON_BENCHMARK") != null);
+    RuntimeEnvironment.application.deleteDatabase(DbHelper.DB_NAME);
+    DbHelper helper = new DbHelper(RuntimeEnvironment.application);
+    try {
+      SQLiteDatabase db = helper.getWritableDatabase();
+      insertAlarms(db, ALARMS, new Random(ALARMS));
+      db.execSQL("DROP INDEX alarms_enabled_time");
+      db.execSQL("DROP INDEX alarms_time");
+      // Every schema change gets a new connection, so that no statement
+      // prepared against the old schema is reused.
+      helper = reopen(helper);
+      long[] unindexed = timeQueries(helper.getWritableDatabase());
+      DbHelper.MIGRATIONS[0].apply(helper.getWritableDatabase());
+      helper = reopen(helper);
+      long[] indexed = timeQueries(helper.getWritableDatabase());
+
+      System.out.println("query                        no index us"
+          + "  v2 indexes us");
+      for (int i = 0; i < QUERIES.length; ++i) {
+        System.out.printf("%-27s  %11.1f  %13.1f%n", QUERIES[i][0],
+            unindexed[i] / 1000.0, indexed[i] / 1000.0);
+      }
+
+      long trigger = timeDeletes(helper.getWritableDatabase(), true);
+      helper.getWritableDatabase().execSQL(
+          "DROP TRIGGER alarms_delete_settings");
+      helper = reopen(helper);
+      long statements = timeDeletes(helper.getWritableDatabase(), false);
+      System.out.printf("%ndelete %d alarms with settings, us per alarm:%n"
+          + "  two DELETE statements  %6.2f%n"
+          + "  v3 trigger             %6.2f%n", DELETED,
+          statements / 1000.0 / DELETED, trigger / 1000.0 / DELETED);
+    } finally {
+      helper.close();
+    }
+  }
+
+  private static DbHelper reopen(DbHelper helper) {
+    helper.close();
+    return new DbHelper(RuntimeEnvironment.application);
+  }
+
+  // The best of RUNS reads of each query, in nanoseconds, after printing
+  // its plan.
+  private static long[] timeQueries(SQLiteDatabase db) {
+    long[] best = new long[QUERIES.length];
+    for (int i = 0; i < QUERIES.length; ++i) {
+      System.out.println(QUERIES[i][0] + ": "
+          + plan(db, QUERIES[i][1]).trim().replace('\n', ';'));
+      best[i] = Long.MAX_VALUE;
+      for (int run = 0; run < RUNS + 5; ++run) {
+        long start = System.nanoTime();
+        long checksum = read(db, QUERIES[i][1]);
+        long nanos = System.nanoTime() - start;
+        blackhole = checksum;
+        if (run >= 5) {
+          best[i] = Math.min(best[i], nanos);
+        }
+      }
+    }
+    return best;
+  }
+
+  // The best of DELETE_RUNS deletes of DELETED alarms that have settings,
+  // in one transaction, in nanoseconds.
+  private static long timeDeletes(SQLiteDatabase db, boolean trigger) {
+    SQLiteStatement deleteAlarm = db.compileStatement("DELETE FROM "
+        + DbHelper.DB_TABLE_ALARMS + " WHERE " + DbHelper.ALARMS_COL__ID
+        + " = ?");
+    SQLiteStatement deleteSettings = db.compileStatement("DELETE FROM "
+        + DbHelper.DB_TABLE_SETTINGS + " WHERE " + DbHelper.SETTINGS_COL_ID
+        + " = ?");
+    long best = Long.MAX_VALUE;
+    Random random = new Random(DELETED);
+    for (int run = 0; run < DELETE_RUNS + 2; ++run) {
+      long[] ids = insertAlarms(db, DELETED, random);
+      long start = System.nanoTime();
+      db.beginTransaction();
+      try {
+        for (long id : ids) {
+          deleteAlarm.bindLong(1, id);
+          deleteAlarm.executeUpdateDelete();
+          if (!trigger) {
+            deleteSettings.bindLong(1, id);
+            deleteSettings.executeUpdateDelete();
+          }
+        }
+        db.setTransactionSuccessful();
+      } finally {
+        db.endTransaction();
+      }
+      long nanos = System.nanoTime() - start;
+      if (run >= 2) {
+        best = Math.min(best, nanos);
+      }
+    }
+    deleteAlarm.close();
+    deleteSettings.close();
+    return best;
+  }
+
+  // Inserts count alarms at random times, every tenth one enabled, each
+  // with a settings row.
+  private static long[] insertAlarms(SQLiteDatabase db, int count,
+      Random random) {
+    long[] ids = new long[count];
+    ContentValues alarm = new ContentValues();
+    ContentValues settings = new AlarmSettings().contentValues(0);
+    db.beginTransaction();
+    try {
+      for (int i = 0; i < count; ++i) {
+        alarm.put(DbHelper.ALARMS_COL_NAME, "alarm " + i);
+        alarm.put(DbHelper.ALARMS_COL_DAY_OF_WEEK, random.nextInt(128));
+        alarm.put(DbHelper.ALARMS_COL_TIME, random.nextInt(86400));
+        alarm.put(DbHelper.ALARMS_COL_ENABLED, i % 10 == 0 ? 1 : 0);
+        ids[i] = db.insertOrThrow(DbHelper.DB_TABLE_ALARMS, null, alarm);
+        settings.put(DbHelper.SETTINGS_COL_ID, ids[i]);
+        db.insertOrThrow(DbHelper.DB_TABLE_SETTINGS, null, settings);
+      }
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
+    return ids;
+  }
+
+  private static long read(SQLiteDatabase db, String sql) {
+    Cursor cursor = db.rawQuery(sql, null);
+    try {
+      long checksum = 0;
+      while (cursor.moveToNext()) {
+        checksum += cursor.getLong(0);
+      }
+      return checksum;
+    } finally {
+      cursor.close();
+    }
+  }
+
+  private static String plan(SQLiteDatabase db, String sql) {
+    Cursor cursor = db.rawQuery("EXPLAIN QUERY PLAN " + sql, null);
+    try {
+      StringBuilder plan = new StringBuilder();
+      int detail = cursor.getColumnIndexOrThrow("detail");
+      while (cursor.moveToNext()) {
+        plan.append(cursor.getString(detail)).append('\n');
+      }
+      return plan.toString();
+    } finally {
+      cursor.close();
+    }
+  }
+}
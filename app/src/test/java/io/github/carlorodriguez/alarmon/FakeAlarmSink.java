@@ -0,0 +1,79 @@
+/****************************************************************************
+ * Copyright 2010 kraigs.android@gmail.com
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ****************************************************************************/
+
+package io.github.carlorodriguez.alarmon;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Records the wake ups PendingAlarmList asks for, in place of the
+ * AlarmManager.
+ */
+final class FakeAlarmSink implements AlarmSink {
+  private final Map<Long, Long> wakeUps = new TreeMap<>();
+  private final Map<Long, Boolean> dispatchDue = new TreeMap<>();
+  private int setCalls;
+
+  @Override
+  public void set(long alarmId, long fireMillis, boolean dispatchDue) {
+    wakeUps.put(alarmId, fireMillis);
+    this.dispatchDue.put(alarmId, dispatchDue);
+    ++setCalls;
+  }
+
+  @Override
+  public void cancel(long alarmId) {
+    wakeUps.remove(alarmId);
+    dispatchDue.remove(alarmId);
+  }
+
+  int size() {
+    return wakeUps.size();
+  }
+
+  int setCalls() {
+    return setCalls;
+  }
+
+  boolean isSet(long alarmId) {
+    return wakeUps.containsKey(alarmId);
+  }
+
+  long fireMillis(long alarmId) {
+    return wakeUps.get(alarmId);
+  }
+
+  boolean dispatchesDue(long alarmId) {
+    return dispatchDue.get(alarmId);
+  }
+
+  /**
+   * @return The ids of the wake ups which would have gone off by nowMillis,
+   * in ascending order.  They stay registered, as one-shot AlarmManager
+   * alarms do until they are delivered.
+   */
+  long[] due(long nowMillis) {
+    long[] due = new long[wakeUps.size()];
+    int count = 0;
+    for (Map.Entry<Long, Long> wakeUp : wakeUps.entrySet()) {
+      if (wakeUp.getValue() <= nowMillis) {
+        due[count++] = wakeUp.getKey();
+      }
+    }
+    return Arrays.copyOf(due, count);
+  }
+}
@@ -0,0 +1,49 @@
+/****************************************************************************
+ * Copyright 2010 kraigs.android@gmail.com
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ****************************************************************************/
+
+package io.github.carlorodriguez.alarmon;
+
+import java.util.TimeZone;
+
+/**
+ * A clock which only moves when told to.
+ */
+final class FakeTimeSource extends TimeSource {
+  private long nowMillis;
+  private TimeZone zone;
+
+  FakeTimeSource(long nowMillis, TimeZone zone) {
+    this.nowMillis = nowMillis;
+    this.zone = zone;
+  }
+
+  @Override
+  public long currentTimeMillis() {
+    return nowMillis;
+  }
+
+  @Override
+  public TimeZone timeZone() {
+    return zone;
+  }
+
+  void advance(long millis) {
+    nowMillis += millis;
+  }
+
+  void setTimeMillis(long millis) {
+    nowMillis = millis;
+  }
+}
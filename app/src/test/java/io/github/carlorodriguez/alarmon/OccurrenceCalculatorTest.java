@@ -0,0 +1,208 @@
+/****************************************************************************
+ * Copyright 2010 kraigs.android@gmail.com
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ****************************************************************************/
+
+package io.github.carlorodriguez.alarmon;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.TimeZone;
+
+import org.junit.Test;
+
+/**
+ * Checks OccurrenceCalculator against a Calendar walk over every day of
+ * week mask, at times around the DST transitions of several zones.
+ */
+public class OccurrenceCalculatorTest {
+  private static final long MINUTE = 60 * 1000L;
+  private static final long HOUR = 60 * MINUTE;
+  private static final long DAY = 24 * HOUR;
+
+  private static final String[] ZONES = {
+    "UTC",
+    "America/New_York",
+    "Europe/London",
+    // 30 minute DST shift.
+    "Australia/Lord_Howe",
+    // Transitions at midnight.
+    "America/Santiago",
+    "Pacific/Chatham",
+  };
+
+  private static final int[] SECONDS_OF_DAY = {
+    0, 30 * 60, 60 * 60, 90 * 60, 2 * 60 * 60, 150 * 60, 3 * 60 * 60,
+    12 * 60 * 60, 23 * 60 * 60 + 30 * 60, 86399,
+  };
+
+  // Start times relative to each transition.
+  private static final long[] NOW_OFFSETS = {
+    -8 * DAY, -7 * DAY, -6 * DAY - 30 * MINUTE, -DAY, -3 * HOUR,
+    -HOUR - 1, -30 * MINUTE, -1, 0, 1, 30 * MINUTE, HOUR + 999, 5 * HOUR,
+    DAY, 3 * DAY + 17,
+  };
+
+  @Test
+  public void matchesCalendarWalk() {
+    for (String id : ZONES) {
+      TimeZone zone = TimeZone.getTimeZone(id);
+      for (long transition : transitions(zone, 2015, 2017)) {
+        for (long offset : NOW_OFFSETS) {
+          long now = transition + offset;
+          OccurrenceCalculator calculator = new OccurrenceCalculator(now, zone);
+          for (int secondsOfDay : SECONDS_OF_DAY) {
+            for (int mask = 0; mask <= Week.ALL_DAYS_MASK; ++mask) {
+              check(calculator, secondsOfDay, mask);
+            }
+          }
+        }
+      }
+    }
+  }
+
+  @Test
+  public void matchesCalendarWalkAtTimeOfNow() {
+    TimeZone zone = TimeZone.getTimeZone("Europe/London");
+    long start = utc(2016, Calendar.JANUARY, 1, 0, 0);
+    for (long now = start; now < start + 366 * DAY; now += 7 * HOUR + 13 * MINUTE) {
+      OccurrenceCalculator calculator = new OccurrenceCalculator(now, zone);
+      int secondsOfDay = (int) (((now + zone.getOffset(now)) % DAY) / 1000);
+      for (int mask = 0; mask <= Week.ALL_DAYS_MASK; ++mask) {
+        check(calculator, secondsOfDay, mask);
+      }
+    }
+  }
+
+  @Test
+  public void timeInGapMovesForward() {
+    TimeZone zone = TimeZone.getTimeZone("America/New_York");
+    // Clocks went from 02:00 EST to 03:00 EDT on Sunday 2016-03-13.
+    long now = utc(2016, Calendar.MARCH, 12, 12, 0);
+    OccurrenceCalculator calculator = new OccurrenceCalculator(now, zone);
+    int sunday = 1 << Week.Day.SUN.ordinal();
+    // 02:30 doesn't exist; it becomes 03:30 EDT.
+    assertEquals(utc(2016, Calendar.MARCH, 13, 7, 30),
+        calculator.nextOccurrence(150 * 60, sunday));
+    // The day after keeps its own time of day.
+    assertEquals(utc(2016, Calendar.MARCH, 14, 6, 30),
+        calculator.nextOccurrence(150 * 60, 1 << Week.Day.MON.ordinal()));
+  }
+
+  @Test
+  public void ambiguousTimeTakesEarlierInstant() {
+    TimeZone zone = TimeZone.getTimeZone("America/New_York");
+    // Clocks went from 02:00 EDT back to 01:00 EST on Sunday 2016-11-06.
+    long now = utc(2016, Calendar.NOVEMBER, 5, 12, 0);
+    OccurrenceCalculator calculator = new OccurrenceCalculator(now, zone);
+    // 01:30 EDT, not 01:30 EST.
+    assertEquals(utc(2016, Calendar.NOVEMBER, 6, 5, 30),
+        calculator.nextOccurrence(90 * 60, 1 << Week.Day.SUN.ordinal()));
+  }
+
+  @Test
+  public void earlierInstantOfAmbiguousTimeIsSkippedOncePast() {
+    TimeZone zone = TimeZone.getTimeZone("America/New_York");
+    // 01:45 EDT, after the first 01:30 has passed.
+    long now = utc(2016, Calendar.NOVEMBER, 6, 5, 45);
+    OccurrenceCalculator calculator = new OccurrenceCalculator(now, zone);
+    assertEquals(utc(2016, Calendar.NOVEMBER, 7, 6, 30),
+        calculator.nextOccurrence(90 * 60, 0));
+  }
+
+  private static void check(OccurrenceCalculator calculator, int secondsOfDay,
+      int mask) {
+    long now = calculator.nowMillis();
+    TimeZone zone = calculator.zone();
+    long expected = calendarWalk(now, zone, secondsOfDay, mask);
+    long actual = calculator.nextOccurrence(secondsOfDay, mask);
+    assertEquals(zone.getID() + " now=" + now + " secondsOfDay="
+        + secondsOfDay + " mask=" + mask, expected, actual);
+  }
+
+  // The lookup AlarmTime did before OccurrenceCalculator, except that the
+  // time of day is set again on each day rather than carried over by
+  // Calendar.add(), which would keep a time shifted by a DST gap, and that
+  // a time which occurs twice takes the earlier instant on its day.
+  private static long calendarWalk(long now, TimeZone zone, int secondsOfDay,
+      int mask) {
+    Calendar calendar = Calendar.getInstance(zone);
+    calendar.setTimeInMillis(now);
+    int year = calendar.get(Calendar.YEAR);
+    int dayOfYear = calendar.get(Calendar.DAY_OF_YEAR);
+    for (int day = 0; day <= 7; ++day) {
+      calendar.clear();
+      calendar.set(Calendar.YEAR, year);
+      calendar.set(Calendar.DAY_OF_YEAR, dayOfYear + day);
+      calendar.set(Calendar.HOUR_OF_DAY, secondsOfDay / 3600);
+      calendar.set(Calendar.MINUTE, secondsOfDay / 60 % 60);
+      calendar.set(Calendar.SECOND, secondsOfDay % 60);
+      long millis = earlierInstant(zone, calendar.getTimeInMillis());
+      if (millis < now) {
+        continue;
+      }
+      Week.Day dow = Week.calendarToDay(calendar.get(Calendar.DAY_OF_WEEK));
+      if (mask == 0 || (mask & 1 << dow.ordinal()) != 0) {
+        return millis;
+      }
+    }
+    throw new AssertionError("No occurrence within a week");
+  }
+
+  // Calendar resolves a time which occurs twice to the later instant.  This
+  // finds the earlier one if the zone has just shifted its clocks back by
+  // 30 or 60 minutes.
+  private static long earlierInstant(TimeZone zone, long millis) {
+    long wall = millis + zone.getOffset(millis);
+    for (long shift = 30 * MINUTE; shift <= HOUR; shift += 30 * MINUTE) {
+      long candidate = millis - shift;
+      if (candidate + zone.getOffset(candidate) == wall) {
+        return candidate;
+      }
+    }
+    return millis;
+  }
+
+  // Instants, to the minute, at which the zone's offset changes.
+  private static List<Long> transitions(TimeZone zone, int fromYear,
+      int untilYear) {
+    List<Long> transitions = new ArrayList<>();
+    long from = utc(fromYear, Calendar.JANUARY, 1, 0, 0);
+    long until = utc(untilYear, Calendar.JANUARY, 1, 0, 0);
+    for (long hour = from; hour < until; hour += HOUR) {
+      if (zone.getOffset(hour) == zone.getOffset(hour + HOUR)) {
+        continue;
+      }
+      long minute = hour;
+      while (zone.getOffset(minute + MINUTE) == zone.getOffset(hour)) {
+        minute += MINUTE;
+      }
+      transitions.add(minute + MINUTE);
+    }
+    if (transitions.isEmpty()) {
+      transitions.add(from);
+    }
+    return transitions;
+  }
+
+  private static long utc(int year, int month, int day, int hour,
+      int minute) {
+    Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+    calendar.clear();
+    calendar.set(year, month, day, hour, minute);
+    return calendar.getTimeInMillis();
+  }
+}
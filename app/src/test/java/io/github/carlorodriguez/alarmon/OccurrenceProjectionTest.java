@@ -0,0 +1,273 @@
+/****************************************************************************
+ * Copyright 2010 kraigs.android@gmail.com
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ****************************************************************************/
+
+package io.github.carlorodriguez.alarmon;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.TimeZone;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks OccurrenceProjection against expanding every alarm on its own with
+ * a Calendar and sorting the result.
+ */
+public class OccurrenceProjectionTest {
+  private static final long MINUTE = 60 * 1000L;
+  private static final long HOUR = 60 * MINUTE;
+  private static final long DAY = 24 * HOUR;
+  private static final int WEEKDAYS = mask(Week.Day.MON, Week.Day.TUE,
+      Week.Day.WED, Week.Day.THU, Week.Day.FRI);
+
+  private FakeTimeSource clock;
+  private long now;
+
+  @Before
+  public void setUp() {
+    // A Wednesday, a few weeks before clocks go forward on 2016-03-27.
+    TimeZone zone = TimeZone.getTimeZone("Europe/London");
+    Calendar calendar = Calendar.getInstance(zone);
+    calendar.clear();
+    calendar.set(2016, Calendar.MARCH, 2, 6, 0);
+    now = calendar.getTimeInMillis();
+    clock = new FakeTimeSource(now, zone);
+    TimeSource.set(clock);
+  }
+
+  @After
+  public void tearDown() {
+    TimeSource.set(null);
+  }
+
+  @Test
+  public void mergesStreamsInTimeOrder() {
+    long[] alarmIds = { 4, 7, 1, 3, 9, 2 };
+    AlarmTime[] times = {
+      new AlarmTime(6, 30, 0, new Week(Week.ALL_DAYS_MASK)),
+      new AlarmTime(7, 0, 0, new Week(WEEKDAYS)),
+      new AlarmTime(23, 30, 0, new Week(mask(Week.Day.SAT, Week.Day.SUN))),
+      // One-shot alarms, today and tomorrow.
+      new AlarmTime(12, 0, 0),
+      new AlarmTime(5, 59, 0),
+      new AlarmTime(8, 15, 0, new Week(mask(Week.Day.WED))),
+    };
+    OccurrenceProjection projection = new OccurrenceProjection();
+    projection.reset(alarmIds, times);
+
+    // Twenty weeks run past the cache, and across the DST change.
+    long until = now + 20 * 7 * DAY;
+    List<String> expected = expand(alarmIds, times, now, until);
+    assertTrue(expected.size() > OccurrenceProjection.CACHE_LIMIT);
+    assertEquals(expected, list(projection.iterator(now, until)));
+  }
+
+  @Test
+  public void equalTimesAreOrderedById() {
+    long[] alarmIds = { 5, 2, 9 };
+    AlarmTime daily = new AlarmTime(7, 0, 0, new Week(Week.ALL_DAYS_MASK));
+    AlarmTime[] times = { daily, daily, daily };
+    OccurrenceProjection projection = new OccurrenceProjection();
+    projection.reset(alarmIds, times);
+
+    Iterator<OccurrenceProjection.Occurrence> occurrences =
+        projection.iterator(now, now + 3 * DAY);
+    for (int day = 0; day < 3; ++day) {
+      for (long alarmId : new long[] { 2, 5, 9 }) {
+        OccurrenceProjection.Occurrence occurrence = occurrences.next();
+        assertEquals(alarmId, occurrence.alarmId());
+        assertEquals(now + HOUR + day * DAY, occurrence.fireMillis());
+      }
+    }
+    assertFalse(occurrences.hasNext());
+  }
+
+  @Test
+  public void windowsPastTheCacheResumeWhereItEnds() {
+    // 256 firings of five alarms end with the first of a pair.
+    long[] alarmIds = new long[5];
+    AlarmTime[] times = new AlarmTime[alarmIds.length];
+    for (int i = 0; i < alarmIds.length; ++i) {
+      alarmIds[i] = i + 1;
+      // Alarms share times in pairs, so that a window can start between
+      // two firings at the same time.
+      times[i] = new AlarmTime(6 + i / 2, 0, 0,
+          new Week(Week.ALL_DAYS_MASK));
+    }
+    OccurrenceProjection projection = new OccurrenceProjection();
+    projection.reset(alarmIds, times);
+
+    // Windows that start before the end of the cache, inside it and after
+    // it.
+    long end = now + 60 * DAY;
+    long step = 7 * DAY + 5 * HOUR + 30 * MINUTE;
+    for (long from = now; from < end; from += step) {
+      for (long length : new long[] { HOUR, DAY, 10 * DAY }) {
+        assertEquals(expand(alarmIds, times, from, from + length),
+            list(projection.iterator(from, from + length)));
+      }
+    }
+
+    // Windows starting at the last cached firing, which shares its time
+    // with the first firing past the cache, just after it, and exactly at a
+    // later firing.
+    List<String> all = expand(alarmIds, times, now, end);
+    long lastMillis = millis(all.get(OccurrenceProjection.CACHE_LIMIT - 1));
+    assertEquals(lastMillis, millis(all.get(OccurrenceProjection.CACHE_LIMIT)));
+    long laterMillis = millis(all.get(OccurrenceProjection.CACHE_LIMIT + 20));
+    for (long from : new long[] { lastMillis, lastMillis + 1, laterMillis }) {
+      assertEquals(expand(alarmIds, times, from, from + DAY),
+          list(projection.iterator(from, from + DAY)));
+    }
+  }
+
+  @Test
+  public void changeFailsOpenIterators() {
+    OccurrenceProjection projection = new OccurrenceProjection();
+    AlarmTime daily = new AlarmTime(7, 0, 0, new Week(Week.ALL_DAYS_MASK));
+    projection.reset(new long[] { 1 }, new AlarmTime[] { daily });
+    Iterator<OccurrenceProjection.Occurrence> occurrences =
+        projection.iterator(now, now + 7 * DAY);
+    occurrences.next();
+
+    projection.reset(new long[] { 2 },
+        new AlarmTime[] { new AlarmTime(8, 0, 0) });
+    try {
+      occurrences.hasNext();
+      fail();
+    } catch (ConcurrentModificationException e) {
+      // Expected.
+    }
+
+    // Iterators made after the change see the new alarms.
+    occurrences = projection.iterator(now, now + 7 * DAY);
+    assertEquals(2, occurrences.next().alarmId());
+    assertFalse(occurrences.hasNext());
+  }
+
+  @Test
+  public void snoozedRepeatingAlarmCarriesOnOnItsDays() {
+    AlarmTime schedule = new AlarmTime(7, 0, 0, new Week(WEEKDAYS));
+    // It rings on Wednesday at 07:00 and is snoozed for ten minutes.
+    clock.advance(HOUR);
+    AlarmTime snooze =
+        AlarmTime.snoozeInMillisUTC(10).withScheduleOf(schedule);
+    assertEquals(now + HOUR + 10 * MINUTE, snooze.fireMillis());
+
+    OccurrenceProjection projection = new OccurrenceProjection();
+    projection.reset(new long[] { 1 }, new AlarmTime[] { snooze });
+    List<String> actual = list(projection.iterator(now, now + 7 * DAY));
+    assertEquals(5, actual.size());
+    assertEquals(entry(now + HOUR + 10 * MINUTE, 1), actual.get(0));
+    // Thursday and Friday, then Monday and Tuesday.
+    assertEquals(entry(now + DAY + HOUR, 1), actual.get(1));
+    assertEquals(entry(now + 2 * DAY + HOUR, 1), actual.get(2));
+    assertEquals(entry(now + 5 * DAY + HOUR, 1), actual.get(3));
+
+    // A snoozed one-shot alarm stays a one-shot.
+    AlarmTime once = AlarmTime.snoozeInMillisUTC(10)
+        .withScheduleOf(new AlarmTime(7, 0, 0));
+    assertEquals(7 * 3600 + 10 * 60, once.secondsOfDay());
+    assertFalse(once.repeats());
+  }
+
+  // Every firing of every alarm in [from, until): its pending time, then
+  // each later day of its week at its time of day.  Sorted by time, then
+  // alarm id.
+  private static List<String> expand(long[] alarmIds, AlarmTime[] times,
+      long from, long until) {
+    TimeZone zone = TimeSource.get().timeZone();
+    List<long[]> occurrences = new ArrayList<>();
+    for (int i = 0; i < alarmIds.length; ++i) {
+      AlarmTime time = times[i];
+      long first = time.fireMillis();
+      occurrences.add(new long[] { first, alarmIds[i] });
+      if (!time.repeats()) {
+        continue;
+      }
+      Calendar calendar = Calendar.getInstance(zone);
+      calendar.setTimeInMillis(first);
+      while (true) {
+        calendar.add(Calendar.DAY_OF_MONTH, 1);
+        calendar.set(Calendar.HOUR_OF_DAY, time.hourOfDay());
+        calendar.set(Calendar.MINUTE, time.minute());
+        calendar.set(Calendar.SECOND, time.second());
+        long millis = calendar.getTimeInMillis();
+        if (millis >= until) {
+          break;
+        }
+        Week.Day dow = Week.calendarToDay(calendar.get(Calendar.DAY_OF_WEEK));
+        if ((time.daysOfWeekMask() & 1 << dow.ordinal()) != 0) {
+          occurrences.add(new long[] { millis, alarmIds[i] });
+        }
+      }
+    }
+    Collections.sort(occurrences, new Comparator<long[]>() {
+      @Override
+      public int compare(long[] a, long[] b) {
+        if (a[0] != b[0]) {
+          return a[0] < b[0] ? -1 : 1;
+        }
+        return a[1] < b[1] ? -1 : a[1] == b[1] ? 0 : 1;
+      }
+    });
+    List<String> entries = new ArrayList<>();
+    for (long[] occurrence : occurrences) {
+      if (occurrence[0] >= from && occurrence[0] < until) {
+        entries.add(entry(occurrence[0], occurrence[1]));
+      }
+    }
+    return entries;
+  }
+
+  private static List<String> list(
+      Iterator<OccurrenceProjection.Occurrence> occurrences) {
+    List<String> entries = new ArrayList<>();
+    while (occurrences.hasNext()) {
+      OccurrenceProjection.Occurrence occurrence = occurrences.next();
+      entries.add(entry(occurrence.fireMillis(), occurrence.alarmId()));
+    }
+    return entries;
+  }
+
+  // Readable in assertion failures.
+  private static String entry(long fireMillis, long alarmId) {
+    return alarmId + "@" + fireMillis;
+  }
+
+  private static long millis(String entry) {
+    return Long.parseLong(entry.substring(entry.indexOf('@') + 1));
+  }
+
+  private static int mask(Week.Day... days) {
+    int mask = 0;
+    for (Week.Day day : days) {
+      mask |= 1 << day.ordinal();
+    }
+    return mask;
+  }
+}
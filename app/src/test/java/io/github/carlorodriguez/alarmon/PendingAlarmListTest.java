@@ -0,0 +1,230 @@
+/****************************************************************************
+ * Copyright 2010 kraigs.android@gmail.com
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ****************************************************************************/
+
+package io.github.carlorodriguez.alarmon;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Calendar;
+import java.util.TimeZone;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Drives PendingAlarmList the way AlarmClockService does, against a fake
+ * clock and a fake AlarmManager.
+ */
+public class PendingAlarmListTest {
+  private static final long MINUTE = 60 * 1000L;
+  private static final long HOUR = 60 * MINUTE;
+  private static final long DAY = 24 * HOUR;
+  // As in AlarmClockService.
+  private static final long DISPATCH_WINDOW_MILLIS = 1000;
+  private static final long LATE_DISPATCH_MILLIS = 10 * MINUTE;
+
+  private FakeTimeSource clock;
+  private FakeAlarmSink sink;
+
+  @Before
+  public void setUp() {
+    TimeZone utc = TimeZone.getTimeZone("UTC");
+    Calendar calendar = Calendar.getInstance(utc);
+    calendar.clear();
+    // A Wednesday.
+    calendar.set(2016, Calendar.JUNE, 1, 6, 0);
+    clock = new FakeTimeSource(calendar.getTimeInMillis(), utc);
+    TimeSource.set(clock);
+    sink = new FakeAlarmSink();
+  }
+
+  @After
+  public void tearDown() {
+    TimeSource.set(null);
+  }
+
+  @Test
+  public void nextDueRegistersOnlyTheEarliestAlarm() {
+    PendingAlarmList list = new PendingAlarmList(sink,
+        PendingAlarmList.Registration.NEXT_DUE);
+    list.put(1, time(8, 0));
+    list.put(2, time(7, 0));
+    list.put(3, time(9, 0));
+
+    assertEquals(1, sink.size());
+    assertTrue(sink.isSet(2));
+    assertTrue(sink.dispatchesDue(2));
+    assertEquals(clock.currentTimeMillis() + HOUR, sink.fireMillis(2));
+    assertEquals(1, list.registrationCount());
+
+    list.remove(2);
+    assertEquals(1, sink.size());
+    assertTrue(sink.isSet(1));
+  }
+
+  @Test
+  public void batchRegistersOnce() {
+    PendingAlarmList list = new PendingAlarmList(sink,
+        PendingAlarmList.Registration.NEXT_DUE);
+    list.putAll(new long[] { 1, 2, 3 },
+        new AlarmTime[] { time(9, 0), time(8, 0), time(7, 0) });
+
+    assertEquals(1, sink.setCalls());
+    assertTrue(sink.isSet(3));
+  }
+
+  @Test
+  public void dispatchDeliversEveryCoDueAlarm() {
+    PendingAlarmList list = new PendingAlarmList(sink,
+        PendingAlarmList.Registration.NEXT_DUE);
+    list.put(1, time(7, 0));
+    list.put(2, time(7, 0));
+    list.put(3, time(8, 0));
+
+    clock.advance(HOUR);
+    long[] fired = sink.due(clock.currentTimeMillis());
+    assertEquals(1, fired.length);
+    assertArrayEquals(new long[] { 1, 2 }, dispatch(list));
+
+    assertEquals(1, list.size());
+    assertTrue(sink.isSet(3));
+    assertEquals(0, sink.due(clock.currentTimeMillis()).length);
+  }
+
+  @Test
+  public void coldStartDispatchesAlarmsDueWhileStopped() {
+    long now = clock.currentTimeMillis();
+    PendingAlarmList before = new PendingAlarmList(new FakeAlarmSink(),
+        PendingAlarmList.Registration.NEXT_DUE);
+    before.put(1, time(6, 0));
+    before.put(2, time(6, 0));
+    before.put(3, time(7, 0));
+    // A snooze: no days, and not a time taken from the alarm's row.
+    before.put(4, new AlarmTime(now + 5 * MINUTE, 6 * 3600 + 5 * 60, 0));
+    PendingAlarmSnapshot saved = before.snapshot();
+
+    // The process dies just before the 06:00 alarms and restarts five
+    // minutes later, and in a second run the next day.
+    clock.advance(5 * MINUTE);
+    PendingAlarmList list = new PendingAlarmList(sink,
+        PendingAlarmList.Registration.NEXT_DUE);
+    long[] stale = list.restore(saved.alarmIds(), saved.times(),
+        clock.currentTimeMillis() - LATE_DISPATCH_MILLIS);
+    assertEquals(0, stale.length);
+
+    // The wake up is in the past, so the AlarmManager delivers it at once.
+    assertEquals(1, sink.due(clock.currentTimeMillis()).length);
+    assertArrayEquals(new long[] { 1, 2, 4 }, dispatch(list));
+    assertTrue(sink.isSet(3));
+
+    clock.advance(DAY);
+    sink = new FakeAlarmSink();
+    list = new PendingAlarmList(sink, PendingAlarmList.Registration.NEXT_DUE);
+    stale = list.restore(saved.alarmIds(), saved.times(),
+        clock.currentTimeMillis() - LATE_DISPATCH_MILLIS);
+    assertArrayEquals(new long[] { 1, 2, 4, 3 }, stale);
+    assertEquals(0, list.size());
+    assertEquals(0, sink.size());
+  }
+
+  @Test
+  public void ringingAlarmKeepsListBusyUntilAcknowledged() {
+    PendingAlarmList list = new PendingAlarmList(sink,
+        PendingAlarmList.Registration.NEXT_DUE);
+    list.put(1, time(7, 0));
+
+    clock.advance(HOUR);
+    assertArrayEquals(new long[] { 1 }, dispatch(list));
+    // AlarmClockService only stops once the list is idle.
+    assertEquals(0, list.size());
+    assertEquals(1, list.dispatchedCount());
+    assertFalse(list.isIdle());
+
+    // Acknowledging a one-shot alarm removes it.
+    assertTrue(list.remove(1));
+    assertEquals(0, list.dispatchedCount());
+    assertTrue(list.isIdle());
+    assertFalse(list.remove(1));
+  }
+
+  @Test
+  public void repeatingAlarmIsRearmedAfterAcknowledge() {
+    PendingAlarmList list = new PendingAlarmList(sink,
+        PendingAlarmList.Registration.NEXT_DUE);
+    list.put(1, daily(7, 0));
+
+    clock.advance(HOUR);
+    assertArrayEquals(new long[] { 1 }, dispatch(list));
+    assertFalse(list.isIdle());
+    assertEquals(0, sink.size());
+
+    // As AlarmClockService.acknowledgeAlarm() does for a repeating alarm,
+    // with the time read back from its row a minute later.
+    clock.advance(MINUTE);
+    list.remove(1);
+    list.put(1, daily(7, 0));
+    assertEquals(0, list.dispatchedCount());
+    assertFalse(list.isIdle());
+    assertTrue(sink.isSet(1));
+    assertEquals(clock.currentTimeMillis() + DAY - MINUTE, sink.fireMillis(1));
+  }
+
+  @Test
+  public void snoozingRingingAlarmReschedulesIt() {
+    PendingAlarmList list = new PendingAlarmList(sink,
+        PendingAlarmList.Registration.NEXT_DUE);
+    list.put(1, time(7, 0));
+
+    clock.advance(HOUR);
+    dispatch(list);
+    long now = clock.currentTimeMillis();
+    list.put(1, new AlarmTime(now + 10 * MINUTE, 7 * 3600 + 10 * 60, 0));
+    assertEquals(0, list.dispatchedCount());
+    assertEquals(now + 10 * MINUTE, sink.fireMillis(1));
+  }
+
+  @Test
+  public void perAlarmRegistersEachAlarm() {
+    PendingAlarmList list = new PendingAlarmList(sink,
+        PendingAlarmList.Registration.PER_ALARM);
+    list.put(1, time(8, 0));
+    list.put(2, time(7, 0));
+
+    assertEquals(2, sink.size());
+    assertFalse(sink.dispatchesDue(1));
+    assertEquals(2, list.registrationCount());
+
+    list.remove(1);
+    assertFalse(sink.isSet(1));
+    assertEquals(1, list.registrationCount());
+  }
+
+  // What AlarmClockService.dispatchDueAlarms() does when a wake up fires.
+  private long[] dispatch(PendingAlarmList list) {
+    return list.takeDue(clock.currentTimeMillis() + DISPATCH_WINDOW_MILLIS);
+  }
+
+  private static AlarmTime time(int hourOfDay, int minute) {
+    return new AlarmTime(hourOfDay, minute, 0);
+  }
+
+  private static AlarmTime daily(int hourOfDay, int minute) {
+    return new AlarmTime(hourOfDay, minute, 0, new Week(Week.ALL_DAYS_MASK));
+  }
+}
@@ -0,0 +1,257 @@
+/****************************************************************************
+ * Copyright 2010 kraigs.android@gmail.com
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ****************************************************************************/
+
+package io.github.carlorodriguez.alarmon;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+
+/**
+ * Decodes the same rows with the row mappers and with column lookups by
+ * name on every row, as the Cursor constructors did before the mappers.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 23)
+public class RowMapperTest {
+  private static final String[] SETTINGS_COLUMNS = {
+    DbHelper.SETTINGS_COL_TONE_URL,
+    DbHelper.SETTINGS_COL_TONE_NAME,
+    DbHelper.SETTINGS_COL_SNOOZE,
+    DbHelper.SETTINGS_COL_VIBRATE,
+    DbHelper.SETTINGS_COL_VOLUME_STARTING,
+    DbHelper.SETTINGS_COL_VOLUME_ENDING,
+    DbHelper.SETTINGS_COL_VOLUME_TIME,
+    DbHelper.SETTINGS_COL_VOLUME,
+    DbHelper.SETTINGS_COL_LENGTH_SIGNAL,
+    DbHelper.SETTINGS_COL_PAUSE_SIGNALS,
+    DbHelper.SETTINGS_COL_NUMBER_SIGNALS,
+  };
+
+  @Test
+  public void alarmMapperMatchesLookupsByName() {
+    // Columns in another order than contentColumns(), with one the mapper
+    // doesn't read, and null in every nullable column.
+    MatrixCursor cursor = new MatrixCursor(new String[] {
+        "extra", DbHelper.ALARMS_COL_NAME, DbHelper.ALARMS_COL_DAY_OF_WEEK,
+        DbHelper.ALARMS_COL__ID, DbHelper.ALARMS_COL_TIME,
+        DbHelper.ALARMS_COL_ENABLED });
+    cursor.addRow(new Object[] { 1, "Work", 0x1f, 3, 7 * 3600, 1 });
+    cursor.addRow(new Object[] { null, null, null, 4, 23 * 3600 + 59 * 60, 0 });
+    cursor.addRow(new Object[] { 2, "", 0x7f, 9, null, null });
+
+    OccurrenceCalculator calculator = new OccurrenceCalculator();
+    AlarmInfo.RowMapper mapper = new AlarmInfo.RowMapper(cursor, calculator);
+    int rows = 0;
+    while (cursor.moveToNext()) {
+      String expected = describe(cursor);
+      assertEquals(expected, describe(mapper.map(cursor)));
+      assertEquals(expected,
+          describe(new AlarmInfo(cursor, new OccurrenceCalculator())));
+      ++rows;
+    }
+    assertEquals(3, rows);
+
+    cursor.moveToPosition(1);
+    AlarmInfo info = mapper.map(cursor);
+    assertNull(info.getName());
+    assertEquals(0, info.getTime().daysOfWeekMask());
+  }
+
+  @Test
+  public void settingsMapperMatchesLookupsByName() {
+    String[] columns = new String[SETTINGS_COLUMNS.length + 1];
+    columns[0] = DbHelper.SETTINGS_COL_ID;
+    for (int i = 0; i < SETTINGS_COLUMNS.length; ++i) {
+      // Reversed, so no index matches contentColumns().
+      columns[i + 1] = SETTINGS_COLUMNS[SETTINGS_COLUMNS.length - 1 - i];
+    }
+    MatrixCursor cursor = new MatrixCursor(columns);
+    cursor.addRow(row(columns, 5, "content://media/internal/audio/7",
+        "Bells", 3, 1, 10, 90, 20, 80, 4, 2, 6));
+    // A tone, but null everywhere else.
+    cursor.addRow(row(columns, 6, "content://media/internal/audio/8",
+        null, null, null, null, null, null, null, null, null, null));
+    cursor.addRow(row(columns, 7, "", "\u00dcn\u00efcode \u263e",
+        0, 0, 0, 0, 0, 0, 0, 0, 0));
+
+    AlarmSettings.RowMapper mapper = new AlarmSettings.RowMapper(cursor);
+    int rows = 0;
+    while (cursor.moveToNext()) {
+      assertEquals(decode(cursor), mapper.map(cursor).contentValues(0));
+      ++rows;
+    }
+    assertEquals(3, rows);
+
+    // The Cursor constructor decodes the first row, wherever the cursor is.
+    cursor.moveToFirst();
+    ContentValues first = decode(cursor);
+    cursor.moveToLast();
+    assertEquals(first, new AlarmSettings(cursor).contentValues(0));
+  }
+
+  @Test
+  public void databaseRowsDecodeTheSame() {
+    DbAccessor db = new DbAccessor(RuntimeEnvironment.application);
+    try {
+      db.newAlarm(new AlarmTime(6, 45, 0), true, "Named");
+      db.newAlarm(new AlarmTime(9, 0, 0,
+          new Week(Week.ALL_DAYS_MASK)), false, null);
+      long withSettings =
+          db.newAlarm(new AlarmTime(12, 0, 0), true, "\u03a3");
+      AlarmSettings settings = new AlarmSettings();
+      settings.setSnoozeMinutes(13);
+      db.writeAlarmSettings(withSettings, settings);
+
+      Cursor cursor = db.readAllAlarmDetails();
+      try {
+        AlarmInfo.RowMapper infos = new AlarmInfo.RowMapper(cursor);
+        AlarmSettings.RowMapper allSettings =
+            new AlarmSettings.RowMapper(cursor);
+        List<String> decoded = new ArrayList<>();
+        while (cursor.moveToNext()) {
+          String expected = describe(cursor);
+          assertEquals(expected, describe(infos.map(cursor)));
+          decoded.add(expected);
+          if (!cursor.isNull(
+              cursor.getColumnIndex(DbHelper.SETTINGS_COL_TONE_URL))) {
+            assertEquals(decode(cursor),
+                allSettings.map(cursor).contentValues(0));
+          }
+        }
+        assertEquals(3, decoded.size());
+      } finally {
+        cursor.close();
+      }
+    } finally {
+      db.closeConnections();
+    }
+  }
+
+  @Test
+  public void missingColumnsAreRejectedUpFront() {
+    MatrixCursor alarms = new MatrixCursor(new String[] {
+        DbHelper.ALARMS_COL__ID, DbHelper.ALARMS_COL_TIME,
+        DbHelper.ALARMS_COL_ENABLED, DbHelper.ALARMS_COL_DAY_OF_WEEK });
+    alarms.addRow(new Object[] { 1, 0, 1, 0 });
+    alarms.moveToFirst();
+    try {
+      new AlarmInfo.RowMapper(alarms);
+      fail();
+    } catch (IllegalArgumentException e) {
+      // Expected.
+    }
+    try {
+      new AlarmInfo(alarms);
+      fail();
+    } catch (IllegalArgumentException e) {
+      // Expected.
+    }
+
+    MatrixCursor settings = new MatrixCursor(new String[] {
+        DbHelper.SETTINGS_COL_TONE_URL, DbHelper.SETTINGS_COL_SNOOZE });
+    settings.addRow(new Object[] { "content://tone", 5 });
+    try {
+      new AlarmSettings.RowMapper(settings);
+      fail();
+    } catch (IllegalArgumentException e) {
+      // Expected.
+    }
+    try {
+      new AlarmSettings(settings);
+      fail();
+    } catch (IllegalArgumentException e) {
+      // Expected.
+    }
+  }
+
+  private static Object[] row(String[] columns, Object id, Object toneUrl,
+      Object toneName, Object... ints) {
+    Object[] row = new Object[columns.length];
+    for (int i = 0; i < columns.length; ++i) {
+      String column = columns[i];
+      if (column.equals(DbHelper.SETTINGS_COL_ID)) {
+        row[i] = id;
+      } else if (column.equals(DbHelper.SETTINGS_COL_TONE_URL)) {
+        row[i] = toneUrl;
+      } else if (column.equals(DbHelper.SETTINGS_COL_TONE_NAME)) {
+        row[i] = toneName;
+      } else {
+        // The remaining columns in SETTINGS_COLUMNS order.
+        for (int j = 2; j < SETTINGS_COLUMNS.length; ++j) {
+          if (column.equals(SETTINGS_COLUMNS[j])) {
+            row[i] = ints[j - 2];
+          }
+        }
+      }
+    }
+    return row;
+  }
+
+  // The alarm at the cursor's row, read with a lookup by name per column.
+  private static String describe(Cursor cursor) {
+    return describe(
+        cursor.getLong(cursor.getColumnIndex(DbHelper.ALARMS_COL__ID)),
+        cursor.getInt(cursor.getColumnIndex(DbHelper.ALARMS_COL_ENABLED)) == 1,
+        cursor.getString(cursor.getColumnIndex(DbHelper.ALARMS_COL_NAME)),
+        cursor.getInt(cursor.getColumnIndex(DbHelper.ALARMS_COL_TIME)),
+        cursor.getInt(cursor.getColumnIndex(DbHelper.ALARMS_COL_DAY_OF_WEEK)));
+  }
+
+  private static String describe(AlarmInfo info) {
+    return describe(info.getAlarmId(), info.enabled(), info.getName(),
+        info.getTime().secondsOfDay(), info.getTime().daysOfWeekMask());
+  }
+
+  private static String describe(long alarmId, boolean enabled, String name,
+      int secondsOfDay, int daysOfWeek) {
+    return alarmId + " " + enabled + " " + name + " " + secondsOfDay + " "
+        + daysOfWeek;
+  }
+
+  // The settings at the cursor's row, read with a lookup by name per
+  // column, as contentValues(0) would write them.
+  private static ContentValues decode(Cursor cursor) {
+    ContentValues values = new ContentValues();
+    values.put(DbHelper.SETTINGS_COL_ID, 0L);
+    values.put(DbHelper.SETTINGS_COL_TONE_URL, Uri.parse(cursor.getString(
+        cursor.getColumnIndex(DbHelper.SETTINGS_COL_TONE_URL))).toString());
+    values.put(DbHelper.SETTINGS_COL_TONE_NAME, cursor.getString(
+        cursor.getColumnIndex(DbHelper.SETTINGS_COL_TONE_NAME)));
+    for (int i = 2; i < SETTINGS_COLUMNS.length; ++i) {
+      int value = cursor.getInt(cursor.getColumnIndex(SETTINGS_COLUMNS[i]));
+      if (SETTINGS_COLUMNS[i].equals(DbHelper.SETTINGS_COL_VIBRATE)) {
+        values.put(SETTINGS_COLUMNS[i], value == 1);
+      } else {
+        values.put(SETTINGS_COLUMNS[i], value);
+      }
+    }
+    return values;
+  }
+}
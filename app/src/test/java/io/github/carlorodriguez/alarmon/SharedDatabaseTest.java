@@ -0,0 +1,127 @@
+/****************************************************************************
+ * Copyright 2010 kraigs.android@gmail.com
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ****************************************************************************/
+
+package io.github.carlorodriguez.alarmon;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 23)
+public class SharedDatabaseTest {
+  private Context context;
+
+  @Before
+  public void setUp() {
+    context = RuntimeEnvironment.application;
+    assertEquals(0, SharedDatabase.references());
+  }
+
+  @After
+  public void tearDown() {
+    while (SharedDatabase.references() > 0) {
+      SharedDatabase.release();
+    }
+  }
+
+  @Test
+  public void lastReleaseClosesTheSharedConnection() {
+    SQLiteDatabase first = SharedDatabase.acquire(context);
+    DbAccessor db = new DbAccessor(context);
+    assertSame(first, SharedDatabase.acquire(context));
+    assertEquals(3, SharedDatabase.references());
+
+    db.closeConnections();
+    SharedDatabase.release();
+    assertEquals(1, SharedDatabase.references());
+    assertTrue(first.isOpen());
+
+    SharedDatabase.release();
+    assertEquals(0, SharedDatabase.references());
+    assertFalse(first.isOpen());
+
+    // The next holder opens it again.
+    SQLiteDatabase second = SharedDatabase.acquire(context);
+    assertNotSame(first, second);
+    assertTrue(second.isOpen());
+    SharedDatabase.release();
+  }
+
+  @Test
+  public void closingAnAccessorTwiceReleasesOnce() {
+    SQLiteDatabase held = SharedDatabase.acquire(context);
+    DbAccessor db = new DbAccessor(context);
+    db.closeConnections();
+    db.closeConnections();
+    assertEquals(1, SharedDatabase.references());
+    assertTrue(held.isOpen());
+    SharedDatabase.release();
+  }
+
+  @Test
+  public void releaseWithoutAcquireFails() {
+    SharedDatabase.acquire(context);
+    SharedDatabase.release();
+    try {
+      SharedDatabase.release();
+      fail();
+    } catch (IllegalStateException e) {
+      // Expected.
+    }
+    assertEquals(0, SharedDatabase.references());
+  }
+
+  @Test
+  public void providerHoldsOneReferenceUntilShutdown() {
+    AlarmProvider provider =
+        Robolectric.setupContentProvider(AlarmProvider.class);
+    DbAccessor db = new DbAccessor(context);
+    db.newAlarm(new AlarmTime(7, 0, 0), true, "provided");
+
+    for (int i = 0; i < 2; ++i) {
+      Cursor cursor = provider.query(AlarmProvider.ALARMS_URI, null, null,
+          null, null);
+      assertEquals(1, cursor.getCount());
+      cursor.close();
+    }
+    assertEquals(2, SharedDatabase.references());
+
+    // The provider's reference outlives the accessor's.
+    db.closeConnections();
+    assertEquals(1, SharedDatabase.references());
+    provider.shutdown();
+    assertEquals(0, SharedDatabase.references());
+    // A second shutdown has nothing left to release.
+    provider.shutdown();
+    assertEquals(0, SharedDatabase.references());
+  }
+}